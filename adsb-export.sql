@@ -11,6 +11,11 @@ CREATE TABLE IF NOT EXISTS "metrics" (
 	"squawkCount"	INTEGER NOT NULL,
 	"airairCount"	INTEGER NOT NULL,
 	"trackCount"	INTEGER NOT NULL,
+	"queueMax"	INTEGER NOT NULL DEFAULT 0,
+	"queueFull"	INTEGER NOT NULL DEFAULT 0,
+	"dedupHit"	INTEGER NOT NULL DEFAULT 0,
+	"dedupMiss"	INTEGER NOT NULL DEFAULT 0,
+	"positionReject"	INTEGER NOT NULL DEFAULT 0,
 	"radar_id"	INTEGER NOT NULL
 );
 DROP TABLE IF EXISTS "target";
@@ -77,6 +82,7 @@ CREATE TABLE IF NOT EXISTS "modestable" (
 	"acft_reg"	TEXT DEFAULT NULL,
 	"acft_model"	TEXT DEFAULT NULL,
 	"acft_operator"	TEXT DEFAULT NULL,
+	"acft_country"	TEXT DEFAULT NULL,
 	PRIMARY KEY("acid")
 );
 DROP TABLE IF EXISTS "targetecho";
@@ -129,6 +135,11 @@ CREATE UNIQUE INDEX IF NOT EXISTS "FltIDIndex" ON "target" (
 	"radar_id",
 	"acid"
 );
+DROP INDEX IF EXISTS "Index_target";
+CREATE UNIQUE INDEX IF NOT EXISTS "Index_target" ON "target" (
+	"acid",
+	"radar_id"
+);
 DROP INDEX IF EXISTS "FK_acid";
 CREATE INDEX IF NOT EXISTS "FK_acid" ON "target" (
 	"acid"
@@ -167,5 +178,5 @@ CREATE INDEX IF NOT EXISTS "FK_targethistory_acid" ON "targethistory" (
 DROP TRIGGER IF EXISTS "updatemodes";
 CREATE TRIGGER updatemodes BEFORE UPDATE ON target FOR EACH ROW BEGIN UPDATE modestable SET utcupdate=NEW.utcupdate WHERE acid=NEW.acid; END;
 DROP TRIGGER IF EXISTS "insertmodes";
-CREATE TRIGGER insertmodes BEFORE INSERT ON target BEGIN INSERT OR REPLACE INTO modestable (acid,utcdetect,utcupdate) VALUES (NEW.acid, NEW.utcupdate, NEW.utcupdate); END;
+CREATE TRIGGER insertmodes BEFORE INSERT ON target BEGIN INSERT OR IGNORE INTO modestable (acid,utcdetect,utcupdate) VALUES (NEW.acid, NEW.utcupdate, NEW.utcupdate); END;
 COMMIT;
@@ -2,44 +2,79 @@ package adsnet;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public final class ADSBDatabase extends Thread {
 
     private static final long RATE = 30000L;        // 30 Seconds
     //
+    private static final String TARGETCOLUMNS = "altitude,groundSpeed,groundTrack,gsComputed,gtComputed,"
+            + "callsign,latitude,longitude,verticalRate,verticalTrend,quality,squawk,alert,emergency,spi,"
+            + "onground,hijack,comm_out,hadAlert,hadEmergency,hadSPI";
+    private static final int TARGETCOUNT = 21;      // number of TARGETCOLUMNS
+    private static final int REGISTRYBATCH = 10000; // rows per registry transaction
+    private static final int SQLITE_BUSY = 5;       // SQLite primary result codes
+    private static final int SQLITE_LOCKED = 6;
+    private static final int SQLITE_IOERR = 10;
+    //
     private SocketParse con;
+    private AircraftRegistry registry;
     //
     private Connection db1;
-    private Statement query;
     private Statement queryt;
     //
+    private PreparedStatement targetInsert;
+    private PreparedStatement targetSelect;
+    private PreparedStatement targetUpsert;
+    private PreparedStatement echoInsert;
+    private PreparedStatement heldInsert;
+    private PreparedStatement modesUpsert;
+    private PreparedStatement callsignUpsert;
+    private PreparedStatement callsignUpdate;
+    //
+    private BatchStatement targetUpserts;
+    private BatchStatement echoInserts;
+    private BatchStatement modesUpserts;
+    private BatchStatement callsignUpserts;
+    private BatchStatement[] batches;       // in the order they are run
+    //
+    private final FlightCache flights;
+    private final EchoDeadband deadband;
+    private final List<TrackSnapshot> snapshots;    // reused from scan to scan
+    //
     private Thread database;
     private static boolean EOF;
     //
     private Config config;
-    private String acid;
     private int radarid;
     private long radarscan;
+    private int batchsize;
     //
-    private Timer timer;
-    private TimerTask task;
+    private TimeSource clock;
+    private TimeSource.Ticker timer;
+    private long scanTime;          // clock time of the scan being written
 
     public ADSBDatabase(Config cf, SocketParse k) {
         con = k;
+        registry = k.getRegistry();
         config = cf;
         radarid = cf.getRadarID();
         radarscan = (long) cf.getRadarScanTime() * 1000L;
-        acid = "";
+        batchsize = cf.getDatabaseBatchSize();
+        flights = new FlightCache();
+        deadband = new EchoDeadband(cf.getEchoDeadband(), cf.getEchoAltitude(),
+                cf.getEchoTurn(), cf.getEchoHeartbeat());
+        snapshots = new ArrayList<>();
         EOF = false;
 
-        task = new TimeoutThread(config.getDatabaseTimeout());
-        timer = new Timer();
+        clock = k.getTimeSource();
+        timer = clock.schedule(new TimeoutThread(config.getDatabaseTimeout()), 0L, RATE, "TimeoutThread");
 
         database = new Thread(this);
         database.setName("ADSBDatabase");
@@ -52,15 +87,444 @@ public final class ADSBDatabase extends Thread {
             System.exit(-1);
         }
 
+        try {
+            migrateDatabase();
+            loadRegistry();
+            prepareStatements();
+            prepareBatches();
+        } catch (SQLException e) {
+            System.err.println("ADSBDatabase Fatal: Unable to prepare statements " + e.getMessage());
+            System.exit(-1);
+        }
+
+        clock.enter(database);
         database.start();
-        timer.scheduleAtFixedRate(task, 0L, RATE);
+        timer.start();
+    }
+
+    /*
+     * Bring an older database up to the schema in adsb-export.sql. The write
+     * path uses UPSERT, which needs the unique keys below, and the insertmodes
+     * trigger must not REPLACE the modestable row on each target upsert.
+     */
+    private void migrateDatabase() throws SQLException {
+        int count;
+
+        try (Statement st = db1.createStatement()) {
+            db1.setAutoCommit(false);
+
+            addColumn(st, "modestable", "acft_country", "TEXT DEFAULT NULL");
+            addColumn(st, "metrics", "queueMax", "INTEGER NOT NULL DEFAULT 0");
+            addColumn(st, "metrics", "queueFull", "INTEGER NOT NULL DEFAULT 0");
+            addColumn(st, "metrics", "dedupHit", "INTEGER NOT NULL DEFAULT 0");
+            addColumn(st, "metrics", "dedupMiss", "INTEGER NOT NULL DEFAULT 0");
+            addColumn(st, "metrics", "positionReject", "INTEGER NOT NULL DEFAULT 0");
+
+            count = st.executeUpdate("DELETE FROM target WHERE flight_id NOT IN"
+                    + " (SELECT max(flight_id) FROM target GROUP BY acid,radar_id)");
+
+            if (count > 0) {
+                System.out.println("ADSBDatabase::migrateDatabase removed " + count + " duplicate target rows");
+            }
+
+            st.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS \"Index_target\" ON \"target\" (\"acid\",\"radar_id\")");
+            st.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS \"Index_callsign\" ON \"callsign\""
+                    + " (\"acid\",\"callsign\",\"flight_id\",\"radar_id\")");
+            st.executeUpdate("DROP TRIGGER IF EXISTS \"insertmodes\"");
+            st.executeUpdate("CREATE TRIGGER insertmodes BEFORE INSERT ON target BEGIN"
+                    + " INSERT OR IGNORE INTO modestable (acid,utcdetect,utcupdate)"
+                    + " VALUES (NEW.acid, NEW.utcupdate, NEW.utcupdate); END");
+
+            db1.commit();
+        } catch (SQLException e) {
+            db1.rollback();
+            throw e;
+        } finally {
+            db1.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * Add a column to a table, if it isn't there already
+     */
+    private static void addColumn(Statement st, String table, String column, String type) throws SQLException {
+        try (ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next() == true) {
+                if (rs.getString("name").equals(column)) {
+                    return;
+                }
+            }
+        }
+
+        st.executeUpdate("ALTER TABLE " + table + " ADD COLUMN \"" + column + "\" " + type);
+    }
+
+    /*
+     * Fill in the modestable rows from before, that are missing something the
+     * registry knows. The rows are updated in batches, with a transaction for
+     * each REGISTRYBATCH rows. Anything already in a row is left alone.
+     */
+    private void loadRegistry() throws SQLException {
+        List<String> acids = new ArrayList<>();
+        String acid;
+        int icao;
+        int idx;
+        int count = 0;
+
+        if (registry.isEmpty()) {
+            return;
+        }
+
+        try (Statement st = db1.createStatement(); ResultSet rs = st.executeQuery("SELECT acid FROM modestable"
+                + " WHERE acft_reg IS NULL OR acft_model IS NULL OR acft_operator IS NULL OR acft_country IS NULL")) {
+            while (rs.next() == true) {
+                acids.add(rs.getString(1));
+            }
+        }
+
+        try (PreparedStatement ps = db1.prepareStatement("UPDATE modestable SET acft_reg=coalesce(acft_reg,?),"
+                + "acft_model=coalesce(acft_model,?),acft_operator=coalesce(acft_operator,?),"
+                + "acft_country=coalesce(acft_country,?) WHERE acid=?")) {
+            db1.setAutoCommit(false);
+
+            for (int i = 0; i < acids.size(); i++) {
+                acid = acids.get(i);
+
+                try {
+                    icao = Integer.parseInt(acid, 16);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                idx = registry.find(icao);
+
+                if (idx == -1 && registry.getCountry(icao) == null) {
+                    continue;
+                }
+
+                setString(ps, 1, registry.getRegistration(idx));
+                ps.setString(2, registry.getModel(idx));
+                ps.setString(3, registry.getOperator(idx));
+                ps.setString(4, registry.getCountry(icao));
+                ps.setString(5, acid);
+                ps.addBatch();
+
+                if ((++count % REGISTRYBATCH) == 0) {
+                    ps.executeBatch();
+                    db1.commit();
+                }
+            }
+
+            ps.executeBatch();
+            db1.commit();
+        } catch (SQLException e) {
+            db1.rollback();
+            throw e;
+        } finally {
+            db1.setAutoCommit(true);
+        }
+
+        if (count > 0) {
+            System.out.println("ADSBDatabase::loadRegistry updated " + count + " modestable rows");
+        }
+    }
+
+    /*
+     * The write path statements are parsed and planned once, when the
+     * connection is opened, and reused for the life of the connection.
+     *
+     * Each is a single INSERT ... ON CONFLICT DO UPDATE, so there is no
+     * existence probe before the write.
+     */
+    private void prepareStatements() throws SQLException {
+        String values = "?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?";      // TARGETCOUNT
+        String updates = TARGETCOLUMNS.replaceAll("(\\w+)", "$1=excluded.$1");
+
+        targetInsert = db1.prepareStatement("INSERT INTO target (acid,radar_id,utcdetect,utcupdate,"
+                + TARGETCOLUMNS + ") VALUES (?,?,?,?," + values + ")"
+                + " ON CONFLICT(acid,radar_id) DO NOTHING", Statement.RETURN_GENERATED_KEYS);
+        targetSelect = db1.prepareStatement("SELECT flight_id FROM target WHERE acid=? AND radar_id=?");
+        targetUpsert = db1.prepareStatement("INSERT INTO target (acid,radar_id,utcdetect,utcupdate,"
+                + TARGETCOLUMNS + ") VALUES (?,?,?,?," + values + ")"
+                + " ON CONFLICT(acid,radar_id) DO UPDATE SET utcupdate=excluded.utcupdate," + updates);
+        echoInsert = db1.prepareStatement("INSERT INTO targetecho ("
+                + "flight_id,radar_id,acid,utcdetect,verticalTrend,latitude,longitude,altitude,onground"
+                + ") VALUES (?,?,?,?,?,?,?,?,?)");
+        heldInsert = db1.prepareStatement("INSERT INTO targetecho ("
+                + "flight_id,radar_id,acid,utcdetect,verticalTrend,latitude,longitude,altitude,onground"
+                + ") VALUES (?,?,?,?,?,?,?,?,?)");
+        modesUpsert = db1.prepareStatement("INSERT INTO modestable (acid,utcdetect,utcupdate,"
+                + "acft_reg,acft_model,acft_operator,acft_country) VALUES (?,?,?,?,?,?,?)"
+                + " ON CONFLICT(acid) DO UPDATE SET utcupdate=excluded.utcupdate,"
+                + "acft_reg=coalesce(excluded.acft_reg,acft_reg),"
+                + "acft_model=coalesce(excluded.acft_model,acft_model),"
+                + "acft_operator=coalesce(excluded.acft_operator,acft_operator),"
+                + "acft_country=coalesce(excluded.acft_country,acft_country)");
+        callsignUpsert = db1.prepareStatement("INSERT INTO callsign (callsign,flight_id,radar_id,acid,"
+                + "utcdetect,utcupdate) VALUES (?,?,?,?,?,?)"
+                + " ON CONFLICT(acid,callsign,flight_id,radar_id) DO UPDATE SET utcupdate=excluded.utcupdate");
+        callsignUpdate = db1.prepareStatement("UPDATE callsign SET utcupdate=?"
+                + " WHERE acid=? AND callsign=? AND flight_id=? AND radar_id=?");
+    }
+
+    /*
+     * The write path statements are collected into batches, and run once per
+     * radar scan in a single transaction. The new target rows have already
+     * been inserted, and their flight_id is in the FlightCache.
+     */
+    private void prepareBatches() {
+        targetUpserts = new BatchStatement("target", targetUpsert, this::bindTarget);
+
+        modesUpserts = new BatchStatement("modestable", modesUpsert, (ps, trk) -> {
+            int idx = registry.find(trk.getAircraftAddress());
+
+            ps.setString(1, trk.getAircraftID());
+            ps.setLong(2, trk.getUpdateTime());
+            ps.setLong(3, trk.getUpdateTime());
+            setString(ps, 4, trk.getRegistration());
+            ps.setString(5, registry.getModel(idx));
+            ps.setString(6, registry.getOperator(idx));
+            ps.setString(7, registry.getCountry(trk.getAircraftAddress()));
+        });
+
+        echoInserts = new BatchStatement("targetecho", echoInsert, (ps, trk) -> {
+            ps.setLong(1, getFlightID(trk));
+            ps.setInt(2, trk.getPositionRadarID());
+            ps.setString(3, trk.getAircraftID());
+            ps.setLong(4, trk.getUpdateTime());
+            ps.setInt(5, trk.getVerticalTrend());
+            setReal(ps, 6, trk.getLatitude(), 1E6);
+            setReal(ps, 7, trk.getLongitude(), 1E6);
+            setInt(ps, 8, trk.getAltitude());
+            ps.setInt(9, ground(trk));
+        });
+
+        callsignUpserts = new BatchStatement("callsign", callsignUpsert, (ps, trk) -> {
+            ps.setString(1, trk.getCallsign());
+            ps.setLong(2, getFlightID(trk));
+            ps.setInt(3, radarid);
+            ps.setString(4, trk.getAircraftID());
+            ps.setLong(5, trk.getUpdateTime());
+            ps.setLong(6, trk.getUpdateTime());
+        });
+
+        batches = new BatchStatement[]{
+            targetUpserts, modesUpserts, echoInserts, callsignUpserts
+        };
+    }
+
+    /*
+     * Bind the target insert or upsert parameters
+     */
+    private void bindTarget(PreparedStatement ps, TrackSnapshot trk) throws SQLException {
+        ps.setString(1, trk.getAircraftID());
+        ps.setInt(2, radarid);
+        ps.setLong(3, trk.getUpdateTime());
+        ps.setLong(4, trk.getUpdateTime());
+        setTarget(ps, 5, trk, ground(trk), scanTime);
+    }
+
+    /*
+     * Return the cached flight_id of a track's target row
+     */
+    private long getFlightID(TrackSnapshot trk) throws SQLException {
+        FlightCache.Flight flight = flights.get(trk.getAircraftID());
+
+        if (flight == null) {
+            throw new SQLException("no flight_id for " + trk.getAircraftID());
+        }
+
+        return flight.getFlightID();
+    }
+
+    /*
+     * Insert the target row for a track that isn't in the FlightCache, and
+     * remember the flight_id it was given. If the row is already there, from
+     * before a restart, the insert does nothing, and its flight_id is looked
+     * up instead. If it isn't found either, the track is logged and skipped,
+     * and isn't put in the FlightCache. Any other error is thrown.
+     *
+     * Returns true if the row was inserted, and false if it was already
+     * there and still needs to be updated, or was skipped.
+     */
+    private boolean insertTarget(TrackSnapshot trk) throws SQLException {
+        String id = trk.getAircraftID();
+
+        bindTarget(targetInsert, trk);
+
+        if (targetInsert.executeUpdate() == 1) {
+            try (ResultSet rs = targetInsert.getGeneratedKeys()) {
+                if (rs.next() == true) {
+                    flights.put(id, rs.getLong(1));
+                    return true;
+                }
+            }
+        }
+
+        targetSelect.setString(1, id);
+        targetSelect.setInt(2, radarid);
+
+        try (ResultSet rs = targetSelect.executeQuery()) {
+            if (rs.next() == true) {
+                flights.put(id, rs.getLong(1));
+                return false;
+            }
+        }
+
+        System.out.println("ADSBDatabase::insertTarget Error: unable to insert target " + id);
+        return false;
+    }
+
+    /*
+     * Return true if the error may pass if the scan is tried again, such as
+     * the database being busy or locked, or a disk error, rather than a bad
+     * row. The SQLite driver gives the primary result code in the low byte.
+     */
+    private boolean isTransient(SQLException e) {
+        switch (e.getErrorCode() & 0xFF) {
+            case SQLITE_BUSY:
+            case SQLITE_LOCKED:
+            case SQLITE_IOERR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /*
+     * Write the callsign utcupdate that has been held in the FlightCache,
+     * if the callsign has been seen since its row was written.
+     */
+    private void updateCallsign(FlightCache.Flight flight) throws SQLException {
+        if (flight.getCallsignPending() == false) {
+            return;
+        }
+
+        callsignUpdate.setLong(1, flight.getCallsignTime());
+        callsignUpdate.setString(2, flight.getAircraftID());
+        callsignUpdate.setString(3, flight.getCallsign());
+        callsignUpdate.setLong(4, flight.getFlightID());
+        callsignUpdate.setInt(5, radarid);
+        callsignUpdate.executeUpdate();
+
+        flight.clearCallsignPending();
+    }
+
+    /*
+     * Write the targetecho row held back by the deadband, when the flight
+     * fades, so the plotted track ends where the target was last seen, or
+     * when it leaves the line, so the plot turns where the target did.
+     *
+     * It has its own statement, as the echo batch may have rows waiting.
+     */
+    private void insertHeldEcho(FlightCache.Flight flight) throws SQLException {
+        FlightCache.Echo echo = flight.getHeldEcho();
+
+        if (echo.isValid() == false) {
+            return;
+        }
+
+        heldInsert.setLong(1, flight.getFlightID());
+        heldInsert.setInt(2, echo.getRadarID());
+        heldInsert.setString(3, flight.getAircraftID());
+        heldInsert.setLong(4, echo.getTime());
+        heldInsert.setInt(5, echo.getVerticalTrend());
+        setReal(heldInsert, 6, echo.getLatitude(), 1E6);
+        setReal(heldInsert, 7, echo.getLongitude(), 1E6);
+        setInt(heldInsert, 8, echo.getAltitude());
+        heldInsert.setInt(9, echo.getOnGround());
+        heldInsert.executeUpdate();
+
+        echo.clear();
+    }
+
+    /*
+     * Write the held targetecho row of a flight whose new position is off
+     * the line, and make it the last row, so the line is flown on from
+     * there. A row that fails is logged and skipped, unless the error may
+     * pass.
+     *
+     * Returns true if the new position is still needed.
+     */
+    private boolean writeHeldEcho(FlightCache.Flight flight, TrackSnapshot trk, int ground) throws SQLException {
+        FlightCache.Echo held = flight.getHeldEcho();
+
+        if (held.isValid() == false) {
+            return true;
+        }
+
+        flight.getLastEcho().set(held);
+
+        try {
+            insertHeldEcho(flight);
+        } catch (SQLException e) {
+            System.out.println("ADSBDatabase::writeHeldEcho Error: " + flight.getAircraftID() + " " + e.getMessage());
+
+            if (isTransient(e)) {
+                throw e;
+            }
+
+            held.clear();
+        }
+
+        return deadband.isNeeded(flight.getLastEcho(), trk, ground);
+    }
+
+    /*
+     * Write the held callsign utcupdate and targetecho row of every flight,
+     * before closing
+     */
+    private void updateCallsigns() {
+        for (FlightCache.Flight flight : flights.values()) {
+            try {
+                updateCallsign(flight);
+                insertHeldEcho(flight);
+            } catch (SQLException e) {
+                System.out.println("ADSBDatabase::updateCallsigns Error: " + flight.getAircraftID() + " " + e.getMessage());
+            }
+        }
+    }
+
+    private void executeBatches() throws SQLException {
+        for (BatchStatement b : batches) {
+            b.execute(db1);
+        }
+    }
+
+    private void clearBatches() {
+        for (BatchStatement b : batches) {
+            b.clear();
+        }
+    }
+
+    private void closeStatements() {
+        PreparedStatement[] list = {
+            targetInsert, targetSelect, targetUpsert, echoInsert, heldInsert, modesUpsert,
+            callsignUpsert, callsignUpdate
+        };
+
+        for (PreparedStatement ps : list) {
+            try {
+                if (ps != null) {
+                    ps.close();
+                }
+            } catch (SQLException e) {
+                // Don't care
+            }
+        }
     }
 
     public void close() {
         EOF = true;
+        timer.cancel();
+
+        synchronized (db1) {
+            updateCallsigns();
+        }
 
         try {
             con.close();
+            closeStatements();
             db1.close();
         } catch (SQLException e) {
             // Don't care
@@ -71,337 +535,272 @@ public final class ADSBDatabase extends Thread {
         return db1;
     }
 
-    @Override
-    public void run() {
-        List<Track> table;
-        ResultSet rs;
-        String queryString = "";
-        int ground, exists;
-        long time;
+    /*
+     * Bind an integer, where -9999 means null
+     */
+    private static void setInt(PreparedStatement ps, int index, int val) throws SQLException {
+        if (val == -9999) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setInt(index, val);
+        }
+    }
 
-        try {
-            while (EOF == false) {
+    /*
+     * Bind a string, where an empty string means null
+     */
+    private static void setString(PreparedStatement ps, int index, String val) throws SQLException {
+        if (val == null || val.equals("")) {
+            ps.setNull(index, Types.VARCHAR);
+        } else {
+            ps.setString(index, val);
+        }
+    }
 
-                table = con.getTrackUpdatedTable();
+    /*
+     * Bind a real rounded to the given decimal places, where -999.0 means null
+     */
+    private static void setReal(PreparedStatement ps, int index, float val, double places) throws SQLException {
+        if (val == -999.0F) {
+            ps.setNull(index, Types.REAL);
+        } else {
+            ps.setDouble(index, Math.round(val * places) / places);
+        }
+    }
 
-                if (!table.isEmpty()) {
-                    for (Track trk : table) {
-                        time = trk.getUpdateTime();
-                        trk.setUpdated(false);
+    /*
+     * Return true if the registry knows something about the aircraft
+     */
+    private boolean hasRegistry(TrackSnapshot trk) {
+        int icao = trk.getAircraftAddress();
 
-                        acid = trk.getAircraftID();
+        return (registry.find(icao) != -1) || (registry.getCountry(icao) != null);
+    }
 
-                        /*
-                         * See if this ACID exists yet in the target table, and
-                         * has our radar ID. If it does, we can do an update, and
-                         * if not we will do an insert.
-                         */
-                        try {
-                            queryString = String.format("SELECT count(1) AS TC FROM target WHERE acid='%s' AND radar_id=%d",
-                                    acid, radarid);
+    /*
+     * Return 1 if the target is on the ground
+     */
+    private static int ground(TrackSnapshot trk) {
+        if ((trk.getOnGround() == true) || (trk.getVirtualOnGround() == true)) {
+            return 1;
+        }
 
-                            query = db1.createStatement();
-                            rs = query.executeQuery(queryString);
+        return 0;
+    }
 
-                            if (rs.next() == true) {
-                                exists = rs.getInt("TC");
-                            } else {
-                                exists = 0;
-                            }
+    /*
+     * Bind the TARGETCOLUMNS values starting at the given index, with the
+     * track quality at the given time
+     */
+    private static void setTarget(PreparedStatement ps, int index, TrackSnapshot trk, int ground, long now) throws SQLException {
+        setInt(ps, index, trk.getAltitude());
+        setReal(ps, index + 1, trk.getGroundSpeed(), 10.0);
+        setReal(ps, index + 2, trk.getGroundTrack(), 10.0);
+        setReal(ps, index + 3, trk.getComputedGroundSpeed(), 10.0);
+        setReal(ps, index + 4, trk.getComputedGroundTrack(), 10.0);
+        ps.setString(index + 5, trk.getCallsign());
+        setReal(ps, index + 6, trk.getLatitude(), 1E6);
+        setReal(ps, index + 7, trk.getLongitude(), 1E6);
+        setInt(ps, index + 8, trk.getVerticalRate());
+        ps.setInt(index + 9, trk.getVerticalTrend());
+        ps.setInt(index + 10, trk.getTrackQuality(now));
+        setInt(ps, index + 11, trk.getSquawk());
+        ps.setInt(index + 12, trk.getAlert() ? 1 : 0);
+        ps.setInt(index + 13, trk.getEmergency() ? 1 : 0);
+        ps.setInt(index + 14, trk.getSPI() ? 1 : 0);
+        ps.setInt(index + 15, ground);
+        ps.setInt(index + 16, trk.getHijack() ? 1 : 0);
+        ps.setInt(index + 17, trk.getCommOut() ? 1 : 0);
+        ps.setInt(index + 18, trk.getHadAlert() ? 1 : 0);
+        ps.setInt(index + 19, trk.getHadEmergency() ? 1 : 0);
+        ps.setInt(index + 20, trk.getHadSPI() ? 1 : 0);
+    }
 
-                            rs.close();
-                            query.close();
-                        } catch (SQLException e) {
-                            query.close();
-                            continue;   // this is not good, so end pass
-                        }
+    @Override
+    public void run() {
+        List<Track> table;
+        TrackSnapshot trk;
+        FlightCache.Flight flight;
+        String val;
+        boolean inserted;
+        int pending;
+        int ground;
+        int i;
 
-                        if ((trk.getOnGround() == true) || (trk.getVirtualOnGround() == true)) {
-                            ground = 1;
-                        } else {
-                            ground = 0;
-                        }
+        while (EOF == false) {
 
-                        if (exists > 0) {         // target exists
-                            queryString = String.format("UPDATE target SET utcupdate=%d,"
-                                    + "altitude=NULLIF(%d, -9999),"
-                                    + "groundSpeed=NULLIF(%.1f, -999.0),"
-                                    + "groundTrack=NULLIF(%.1f, -999.0),"
-                                    + "gsComputed=NULLIF(%.1f, -999.0),"
-                                    + "gtComputed=NULLIF(%.1f, -999.0),"
-                                    + "callsign='%s',"
-                                    + "latitude=NULLIF(%f, -999.0),"
-                                    + "longitude=NULLIF(%f, -999.0),"
-                                    + "verticalRate=NULLIF(%d, -9999),"
-                                    + "verticalTrend=%d,"
-                                    + "quality=%d,"
-                                    + "squawk=NULLIF(%d, -9999),"
-                                    + "alert=%d,"
-                                    + "emergency=%d,"
-                                    + "spi=%d,"
-                                    + "onground=%d,"
-                                    + "hijack=%d,"
-                                    + "comm_out=%d,"
-                                    + "hadAlert=%d,"
-                                    + "hadEmergency=%d,"
-                                    + "hadSPI=%d"
-                                    + " WHERE acid='%s' AND radar_id=%d",
-                                    time,
-                                    trk.getAltitude(),
-                                    trk.getGroundSpeed(),
-                                    trk.getGroundTrack(),
-                                    trk.getComputedGroundSpeed(),
-                                    trk.getComputedGroundTrack(),
-                                    trk.getCallsign(),
-                                    trk.getLatitude(),
-                                    trk.getLongitude(),
-                                    trk.getVerticalRate(),
-                                    trk.getVerticalTrend(),
-                                    trk.getTrackQuality(),
-                                    trk.getSquawk(),
-                                    trk.getAlert() ? 1 : 0,
-                                    trk.getEmergency() ? 1 : 0,
-                                    trk.getSPI() ? 1 : 0,
-                                    ground,
-                                    trk.getHijack() ? 1 : 0,
-                                    trk.getCommOut() ? 1 : 0,
-                                    trk.getHadAlert() ? 1 : 0,
-                                    trk.getHadEmergency() ? 1 : 0,
-                                    trk.getHadSPI() ? 1 : 0,
-                                    acid,
-                                    radarid);
-                        } else {                // target doesn't exist
-                            queryString = String.format("INSERT INTO target ("
-                                    + "acid,"
-                                    + "radar_id,"
-                                    + "utcdetect,"
-                                    + "utcupdate,"
-                                    + "altitude,"
-                                    + "groundSpeed,"
-                                    + "groundTrack,"
-                                    + "gsComputed,"
-                                    + "gtComputed,"
-                                    + "callsign,"
-                                    + "latitude,"
-                                    + "longitude,"
-                                    + "verticalRate,"
-                                    + "quality,"
-                                    + "squawk,"
-                                    + "alert,"
-                                    + "emergency,"
-                                    + "spi,"
-                                    + "onground,"
-                                    + "hijack,"
-                                    + "comm_out,"
-                                    + "hadAlert,"
-                                    + "hadEmergency,"
-                                    + "hadSPI) "
-                                    + "VALUES ('%s',%d,%d,%d,"
-                                    + "NULLIF(%d, -9999),"
-                                    + "NULLIF(%.1f,-999.0),"
-                                    + "NULLIF(%.1f,-999.0),"
-                                    + "NULLIF(%.1f,-999.0),"
-                                    + "NULLIF(%.1f,-999.0),"
-                                    + "'%s',"
-                                    + "NULLIF(%f, -999.0),"
-                                    + "NULLIF(%f, -999.0),"
-                                    + "NULLIF(%d, -9999),"
-                                    + "NULLIF(%d, -9999),"
-                                    + "NULLIF(%d, -9999),"
-                                    + "%d,%d,%d,%d,%d,%d,%d,%d,%d)",
-                                    acid,
-                                    radarid,
-                                    time,
-                                    time,
-                                    trk.getAltitude(),
-                                    trk.getGroundSpeed(),
-                                    trk.getGroundTrack(),
-                                    trk.getComputedGroundSpeed(),
-                                    trk.getComputedGroundTrack(),
-                                    trk.getCallsign(),
-                                    trk.getLatitude(),
-                                    trk.getLongitude(),
-                                    trk.getVerticalRate(),
-                                    trk.getTrackQuality(),
-                                    trk.getSquawk(),
-                                    trk.getAlert() ? 1 : 0,
-                                    trk.getEmergency() ? 1 : 0,
-                                    trk.getSPI() ? 1 : 0,
-                                    ground,
-                                    trk.getHijack() ? 1 : 0,
-                                    trk.getCommOut() ? 1 : 0,
-                                    trk.getHadAlert() ? 1 : 0,
-                                    trk.getHadEmergency() ? 1 : 0,
-                                    trk.getHadSPI() ? 1 : 0);
-                        }
+            table = con.getTrackUpdatedTable();
 
-                        try {
-                            query = db1.createStatement();
-                            query.executeUpdate(queryString);
-                            query.close();
-                        } catch (SQLException e) {
-                            query.close();
-                            System.out.println("ADSBDatabase::run query target Error: " + queryString + " " + e.getMessage());
-                        }
+            if (!table.isEmpty()) {
+                /*
+                 * The whole scan is written as one transaction. The
+                 * connection is shared, so the other users are held off
+                 * while it is out of auto-commit.
+                 */
+                synchronized (db1) {
+                    scanTime = clock.now();
+
+                    try {
+                        db1.setAutoCommit(false);
+                        pending = 0;
+
+                        for (i = 0; i < table.size(); i++) {
+                            /*
+                             * The rows are bound from a copy of the track,
+                             * so they all see the same values, however the
+                             * track changes while they are written
+                             */
+                            if (i == snapshots.size()) {
+                                snapshots.add(new TrackSnapshot());
+                            }
 
-                        if (trk.getUpdatePosition() == true) {
-                            trk.setUpdatePosition(false);
-
-                            queryString = String.format("INSERT INTO targetecho ("
-                                    + "flight_id,"
-                                    + "radar_id,"
-                                    + "acid,"
-                                    + "utcdetect,"
-                                    + "verticalTrend,"
-                                    + "latitude,"
-                                    + "longitude,"
-                                    + "altitude,"
-                                    + "onground"
-                                    + ") VALUES ("
-                                    + "(SELECT flight_id FROM target WHERE acid='%s' AND radar_id=%d),"
-                                    + "%d,"
-                                    + "'%s',"
-                                    + "%d,"
-                                    + "%d,"
-                                    + "NULLIF(%f, -999.0),"
-                                    + "NULLIF(%f, -999.0),"
-                                    + "NULLIF(%d, -9999),"
-                                    + "%d)",
-                                    acid,
-                                    radarid,
-                                    radarid,
-                                    acid,
-                                    time,
-                                    trk.getVerticalTrend(),
-                                    trk.getLatitude(),
-                                    trk.getLongitude(),
-                                    trk.getAltitude(),
-                                    ground);
-
-                            try {
-                                query = db1.createStatement();
-                                query.executeUpdate(queryString);
-                                query.close();
-                            } catch (SQLException e) {
-                                query.close();
-                                System.out.println("ADSBDatabase::run query targetecho Error: " + queryString + " " + e.getMessage());
+                            trk = snapshots.get(i);
+                            table.get(i).capture(trk);
+
+                            if (trk.getUpdated() == false) {
+                                continue;   // already written last scan
                             }
-                        }
 
-                        if (!trk.getRegistration().equals("")) {
-                            try {
+                            /*
+                             * A new target row is inserted now, to get its
+                             * flight_id. Otherwise the row is updated, or
+                             * inserted if it was moved out since.
+                             */
+                            flight = flights.get(trk.getAircraftID());
 
-                                queryString = String.format("SELECT count(1) AS RG FROM modestable"
-                                        + " WHERE acid='%s'", acid);
+                            if (flight == null) {
+                                try {
+                                    inserted = insertTarget(trk);
+                                } catch (SQLException e) {
+                                    System.out.println("ADSBDatabase::run insert target Error: " + trk.getAircraftID() + " " + e.getMessage());
 
-                                query = db1.createStatement();
-                                rs = query.executeQuery(queryString);
+                                    if (isTransient(e)) {
+                                        throw e;    // roll back the scan, and try again
+                                    }
 
-                                if (rs.next() == true) {
-                                    exists = rs.getInt("RG");
-                                } else {
-                                    exists = 0;
+                                    continue;       // skip the one bad row
                                 }
 
-                                rs.close();
-                                query.close();
-                            } catch (SQLException e) {
-                                rs.close();
-                                query.close();
-                                System.out.println("ADSBDatabase::run query modestable warn: " + queryString + " " + e.getMessage());
-                                continue;   // skip the following
-                            }
+                                flight = flights.get(trk.getAircraftID());
 
-                            if (exists > 0) {
-                                queryString = String.format("UPDATE modestable SET acft_reg='%s',utcupdate=%d WHERE acid='%s'",
-                                        trk.getRegistration(),
-                                        time,
-                                        acid);
+                                if (flight == null) {
+                                    continue;       // no row, skipped
+                                }
 
-                                query = db1.createStatement();
-                                query.executeUpdate(queryString);
-                                query.close();
+                                if (inserted == false) {
+                                    targetUpserts.add(trk);
+                                    pending++;
+                                }
+                            } else {
+                                flights.touch(flight);
+                                targetUpserts.add(trk);
+                                pending++;
                             }
-                        }
 
-                        if (!trk.getCallsign().equals("")) {
-                            try {
+                            /*
+                             * A position on the line of the last echo is
+                             * held back, and only the latest is kept. When
+                             * a position leaves the line, the held one is
+                             * where the turn or climb began, so it is
+                             * written first, and the new position is only
+                             * written if it is off the line from there too.
+                             */
+                            if (trk.getUpdatePosition() == true) {
+                                ground = ground(trk);
+
+                                if (deadband.isNeeded(flight.getLastEcho(), trk, ground)
+                                        && writeHeldEcho(flight, trk, ground)) {
+                                    echoInserts.add(trk);
+                                    flight.getLastEcho().set(trk, ground);
+                                    pending++;
+                                } else {
+                                    flight.getHeldEcho().set(trk, ground);
+                                }
+                            }
 
-                                queryString = String.format("SELECT count(1) AS CS FROM callsign"
-                                        + " WHERE callsign='%s' AND acid='%s' AND radar_id=%d",
-                                        trk.getCallsign(), acid, radarid);
+                            /*
+                             * The registration and callsign rows are only
+                             * written when they change. A callsign that is
+                             * seen again just has its time held in the
+                             * FlightCache, until it changes or fades out.
+                             */
+                            val = trk.getRegistration();
 
-                                query = db1.createStatement();
-                                rs = query.executeQuery(queryString);
+                            if (!val.equals(flight.getRegistration())) {
+                                flight.setRegistration(val);
 
-                                if (rs.next() == true) {
-                                    exists = rs.getInt("CS");
-                                } else {
-                                    exists = 0;
+                                if (!val.equals("") || hasRegistry(trk)) {
+                                    modesUpserts.add(trk);
+                                    pending++;
                                 }
+                            }
 
-                                rs.close();
-                                query.close();
-                            } catch (SQLException e) {
-                                rs.close();
-                                query.close();
-                                System.out.println("ADSBDatabase::run query callsign warn: " + queryString + " " + e.getMessage());
-                                continue;   // skip the following
+                            val = trk.getCallsign();
+
+                            if (!val.equals("")) {
+                                if (val.equals(flight.getCallsign())) {
+                                    flight.setCallsignTime(trk.getUpdateTime());
+                                } else {
+                                    updateCallsign(flight);
+                                    flight.setCallsign(val, trk.getUpdateTime());
+                                    callsignUpserts.add(trk);
+                                    pending++;
+                                }
                             }
 
-                            if (exists > 0) {
-                                queryString = String.format("UPDATE callsign SET utcupdate=%d WHERE callsign='%s' AND acid='%s' AND radar_id=%d",
-                                        time,
-                                        trk.getCallsign(),
-                                        acid,
-                                        radarid);
-                            } else {
-                                queryString = String.format("INSERT INTO callsign (callsign,flight_id,radar_id,acid,"
-                                        + "utcdetect,utcupdate) VALUES ('%s',"
-                                        + "(SELECT flight_id FROM target WHERE acid='%s' AND radar_id=%d),"
-                                        + "%d,'%s',%d,%d)",
-                                        trk.getCallsign(),
-                                        acid,
-                                        radarid,
-                                        radarid,
-                                        acid,
-                                        time,
-                                        time);
+                            if (pending >= batchsize) {
+                                executeBatches();
+                                pending = 0;
                             }
+                        }
 
-                            query = db1.createStatement();
-                            query.executeUpdate(queryString);
-                            query.close();
+                        executeBatches();
+                        db1.commit();
+                        flights.commit();
+
+                        /*
+                         * Only now are the changes written
+                         */
+                        for (i = 0; i < table.size(); i++) {
+                            table.get(i).sent(snapshots.get(i));
                         }
-                    }
-                }
+                    } catch (SQLException e) {
+                        System.out.println("ADSBDatabase::run transaction Error: " + e.getMessage());
+                        clearBatches();
 
-                /*
-                 * Simulate radar RPM
-                 */
-                try {
-                    Thread.sleep(radarscan);
-                } catch (InterruptedException f) {
+                        try {
+                            db1.rollback();
+                        } catch (SQLException e1) {
+                        }
+
+                        flights.rollback(); // forget what the scan wrote
+
+                        con.requeueTracks(table);   // write them next scan
+                    } finally {
+                        try {
+                            db1.setAutoCommit(true);
+                        } catch (SQLException e) {
+                        }
+                    }
                 }
             }
-        } catch (NumberFormatException | SQLException e) {
-            // Probably an I/O Exception
-            try {
-                query.close();
-            } catch (SQLException e1) {
-            }
-            System.out.println("ADSBDatabase::run Exception in main loop: " + queryString + " " + e.getMessage());
-            close();
+
+            /*
+             * Simulate radar RPM, on the log time when replaying
+             */
+            clock.sleep(radarscan);
         }
+
+        clock.leave();
     }
 
     /**
      * TimeoutThread
      *
-     * A TimerTask class to move target to history after fade-out, and update
-     * metrics
+     * A task run on the TimeSource to move target to history after
+     * fade-out, and update metrics
      */
-    class TimeoutThread extends TimerTask {
+    class TimeoutThread implements Runnable {
 
         private long time;
         private long timeout;
@@ -418,11 +817,40 @@ public final class ADSBDatabase extends Thread {
 
         @Override
         public void run() {
+            synchronized (db1) {
+                timeout();
+            }
+        }
+
+        private void timeout() {
             String update;
 
-            time = System.currentTimeMillis();
+            time = clock.now();
             timeout = time - (min * 60L * 1000L);    // timeout in milliseconds
 
+            /*
+             * Forget the flight_id of our targets that are being moved out,
+             * and write the callsign utcupdate and targetecho row held for
+             * them.
+             */
+            update = String.format("SELECT acid FROM target WHERE utcupdate <= %d AND radar_id=%d",
+                    timeout, radarid);
+
+            try (Statement st = db1.createStatement(); ResultSet rs = st.executeQuery(update)) {
+                FlightCache.Flight flight;
+
+                while (rs.next() == true) {
+                    flight = flights.remove(rs.getString(1));
+
+                    if (flight != null) {
+                        updateCallsign(flight);
+                        insertHeldEcho(flight);
+                    }
+                }
+            } catch (SQLException e) {
+                System.out.println("ADSBDatabase::run flight cache SQL Error: " + update + " " + e.getMessage());
+            }
+
             /*
              * This also converts the timestamp to SQL format, as the history is
              * probably not going to need any further computations.
@@ -459,12 +887,14 @@ public final class ADSBDatabase extends Thread {
             update = String.format("INSERT INTO metrics ("
                     + "utcupdate,callsignCount,"
                     + "surfaceCount,airborneCount,velocityCount,altitudeCount,"
-                    + "squawkCount,airairCount,trackCount,radar_id) "
-                    + "VALUES (%d,%d,%d,%d,%d,%d,%d,%d,%d,%d"
+                    + "squawkCount,airairCount,trackCount,queueMax,queueFull,dedupHit,dedupMiss,positionReject,radar_id) "
+                    + "VALUES (%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d"
                     + ")",
                     time, con.getCallsignMetric(), con.getSurfaceMetric(), con.getAirborneMetric(),
                     con.getVelocityMetric(), con.getAltitudeMetric(), con.getSquawkMetric(),
-                    con.getAirAirMetric(), con.getTrackMetric(), radarid);
+                    con.getAirAirMetric(), con.getTrackMetric(), con.getQueueMetric(),
+                    con.getQueueFullMetric(), con.getDedupHitMetric(), con.getDedupMissMetric(),
+                    con.getPositionRejectMetric(), radarid);
 
             con.resetMetricCount();
 
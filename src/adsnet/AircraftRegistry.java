@@ -0,0 +1,339 @@
+package adsnet;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * An offline registry of aircraft, and of the ICAO country allocations.
+ *
+ * The aircraft file is CSV, one aircraft per line:
+ *
+ *   icao,registration,model,operator
+ *
+ * and the country file is CSV, one allocation block per line:
+ *
+ *   start,end,country
+ *
+ * where the addresses are in hexadecimal. Blank lines, lines starting with #,
+ * and lines that don't start with an address (a header) are skipped. Fields
+ * may be in double quotes.
+ *
+ * The addresses are kept sorted in an int array, with the strings in arrays
+ * at the same index, and looked up with a binary search. The model and
+ * operator strings are shared between the aircraft that have the same one.
+ *
+ * The registry is not changed after it is loaded, so it is thread safe.
+ */
+public final class AircraftRegistry {
+
+    private int[] address;          // sorted aircraft addresses
+    private String[] registration;
+    private String[] model;
+    private String[] operator;
+    //
+    private int[] blockStart;       // sorted country allocation blocks
+    private int[] blockEnd;
+    private String[] country;
+
+    /**
+     * Class constructor
+     *
+     * @param aircraft a string Representing the aircraft file, or null
+     * @param countries a string Representing the country file, or null
+     */
+    public AircraftRegistry(String aircraft, String countries) {
+        address = new int[0];
+        registration = model = operator = new String[0];
+        blockStart = blockEnd = new int[0];
+        country = new String[0];
+
+        if (aircraft != null) {
+            try {
+                loadAircraft(aircraft);
+                System.out.println("AircraftRegistry loaded " + address.length + " aircraft from " + aircraft);
+            } catch (IOException e) {
+                System.err.println("AircraftRegistry::loadAircraft Unable to read " + aircraft + " " + e.getMessage());
+            }
+        }
+
+        if (countries != null) {
+            try {
+                loadCountries(countries);
+                System.out.println("AircraftRegistry loaded " + country.length + " country blocks from " + countries);
+            } catch (IOException e) {
+                System.err.println("AircraftRegistry::loadCountries Unable to read " + countries + " " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Read the aircraft file, and sort it by address. The address and line
+     * number are sorted together as a long, so the strings can follow.
+     */
+    private void loadAircraft(String file) throws IOException {
+        HashMap<String, String> shared = new HashMap<>();
+        List<String[]> rows = new ArrayList<>();
+        String[] fields;
+        String line;
+        long[] keys;
+        int[] icao;
+        int count;
+        int val;
+        int j;
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            while ((line = in.readLine()) != null) {
+                fields = split(line, 4);
+
+                if (fields != null && parseAddress(fields[0]) != -1) {
+                    rows.add(fields);
+                }
+            }
+        }
+
+        keys = new long[rows.size()];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) parseAddress(rows.get(i)[0]) << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        icao = new int[keys.length];
+        String[] reg = new String[keys.length];
+        String[] mod = new String[keys.length];
+        String[] opr = new String[keys.length];
+        count = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            val = (int) (keys[i] >>> 32);
+            fields = rows.get((int) keys[i]);
+
+            /*
+             * The last line of a duplicated address wins
+             */
+            j = (count > 0 && icao[count - 1] == val) ? count - 1 : count++;
+
+            icao[j] = val;
+            reg[j] = fields[1];
+            mod[j] = share(shared, fields[2]);
+            opr[j] = share(shared, fields[3]);
+        }
+
+        address = Arrays.copyOf(icao, count);
+        registration = Arrays.copyOf(reg, count);
+        model = Arrays.copyOf(mod, count);
+        operator = Arrays.copyOf(opr, count);
+    }
+
+    /*
+     * Read the country file, and sort it by the block start address
+     */
+    private void loadCountries(String file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        String[] fields;
+        String line;
+        long[] keys;
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            while ((line = in.readLine()) != null) {
+                fields = split(line, 3);
+
+                if (fields != null && parseAddress(fields[0]) != -1 && parseAddress(fields[1]) != -1
+                        && !fields[2].equals("")) {
+                    rows.add(fields);
+                }
+            }
+        }
+
+        keys = new long[rows.size()];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) parseAddress(rows.get(i)[0]) << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        blockStart = new int[keys.length];
+        blockEnd = new int[keys.length];
+        country = new String[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            fields = rows.get((int) keys[i]);
+            blockStart[i] = parseAddress(fields[0]);
+            blockEnd[i] = parseAddress(fields[1]);
+            country[i] = fields[2];
+        }
+    }
+
+    /*
+     * Return the one copy of a string, or null if it is empty
+     */
+    private static String share(HashMap<String, String> shared, String val) {
+        String s;
+
+        if (val.equals("")) {
+            return null;
+        }
+
+        if ((s = shared.putIfAbsent(val, val)) == null) {
+            s = val;
+        }
+
+        return s;
+    }
+
+    /*
+     * Return a 24-bit hexadecimal address, or -1 if it isn't one
+     */
+    private static int parseAddress(String val) {
+        if (val.length() == 0 || val.length() > 6 || val.charAt(0) == '-' || val.charAt(0) == '+') {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(val, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Split a CSV line into the given number of trimmed fields, with missing
+     * fields empty, or return null for a blank or comment line.
+     */
+    private static String[] split(String line, int count) {
+        String[] fields = new String[count];
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        int n = 0;
+        char c;
+
+        if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+            return null;
+        }
+
+        for (int i = 0; i < line.length() && n < count; i++) {
+            c = line.charAt(i);
+
+            if (c == '"') {
+                if (quoted && (i + 1) < line.length() && line.charAt(i + 1) == '"') {
+                    sb.append(c);   // "" is a quote inside quotes
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && quoted == false) {
+                fields[n++] = sb.toString().trim();
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+
+        if (n < count) {
+            fields[n++] = sb.toString().trim();
+        }
+
+        while (n < count) {
+            fields[n++] = "";
+        }
+
+        return fields;
+    }
+
+    /**
+     * Method to return the number of aircraft in the registry
+     *
+     * @return an int Representing the number of aircraft
+     */
+    public int size() {
+        return address.length;
+    }
+
+    /**
+     * Method to check if nothing was loaded
+     *
+     * @return a boolean which is true if there are no aircraft or countries
+     */
+    public boolean isEmpty() {
+        return address.length == 0 && country.length == 0;
+    }
+
+    /**
+     * Method to find an aircraft in the registry
+     *
+     * @param icao an int Representing the Mode-S address
+     * @return an int Representing the registry index, or -1 if not found
+     */
+    public int find(int icao) {
+        int i = Arrays.binarySearch(address, icao);
+
+        return (i < 0) ? -1 : i;
+    }
+
+    /**
+     * Method to return the Mode-S address of a registry index
+     *
+     * @param idx an int Representing the registry index
+     * @return an int Representing the Mode-S address
+     */
+    public int getAddress(int idx) {
+        return address[idx];
+    }
+
+    /**
+     * Method to return the registration of an aircraft
+     *
+     * @param idx an int Representing the registry index, or -1
+     * @return a string Representing the registration, or an empty string
+     */
+    public String getRegistration(int idx) {
+        return (idx < 0) ? "" : registration[idx];
+    }
+
+    /**
+     * Method to return the model of an aircraft
+     *
+     * @param idx an int Representing the registry index, or -1
+     * @return a string Representing the model, or null if not known
+     */
+    public String getModel(int idx) {
+        return (idx < 0) ? null : model[idx];
+    }
+
+    /**
+     * Method to return the operator of an aircraft
+     *
+     * @param idx an int Representing the registry index, or -1
+     * @return a string Representing the operator, or null if not known
+     */
+    public String getOperator(int idx) {
+        return (idx < 0) ? null : operator[idx];
+    }
+
+    /**
+     * Method to return the country an address is allocated to
+     *
+     * @param icao an int Representing the Mode-S address
+     * @return a string Representing the country, or null if not known
+     */
+    public String getCountry(int icao) {
+        int i = Arrays.binarySearch(blockStart, icao);
+
+        if (i < 0) {
+            i = -i - 2;     // the block starting below the address
+        }
+
+        if (i >= 0 && icao <= blockEnd[i]) {
+            return country[i];
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,125 @@
+package adsnet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A PreparedStatement that collects one row per TrackSnapshot into a JDBC
+ * batch.
+ *
+ * The batch is run inside a savepoint. If any row fails, the savepoint is
+ * rolled back, and the rows are run again one at a time, so the one bad row
+ * is logged and skipped, and the rest of the batch still gets written.
+ */
+public final class BatchStatement {
+
+    /*
+     * The callback that binds the statement parameters from a TrackSnapshot
+     */
+    public interface Binder {
+
+        /**
+         * Method to bind the statement parameters for one row
+         *
+         * @param ps the PreparedStatement to bind
+         * @param trk the TrackSnapshot the row is made from
+         * @throws SQLException if a parameter can't be bound
+         */
+        void bind(PreparedStatement ps, TrackSnapshot trk) throws SQLException;
+    }
+    //
+    private final String name;
+    private final PreparedStatement ps;
+    private final Binder binder;
+    private final List<TrackSnapshot> rows;
+
+    /**
+     * Class constructor
+     *
+     * @param n a string Representing the table name for error messages
+     * @param p the PreparedStatement to batch
+     * @param b the Binder which sets the parameters for a row
+     */
+    public BatchStatement(String n, PreparedStatement p, Binder b) {
+        name = n;
+        ps = p;
+        binder = b;
+        rows = new ArrayList<>();
+    }
+
+    /**
+     * Method to add a row to the batch
+     *
+     * @param trk the TrackSnapshot to make the row from
+     */
+    public void add(TrackSnapshot trk) {
+        try {
+            binder.bind(ps, trk);
+            ps.addBatch();
+            rows.add(trk);
+        } catch (SQLException e) {
+            System.out.println("BatchStatement::add " + name + " Error: " + trk.getAircraftID() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to return the number of rows waiting in the batch
+     *
+     * @return an int Representing the number of rows in the batch
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Method to run the batch. The connection must not be in auto-commit.
+     *
+     * @param db the Connection the statement belongs to
+     * @throws SQLException if the savepoint can't be used
+     */
+    public void execute(Connection db) throws SQLException {
+        Savepoint sp;
+
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        sp = db.setSavepoint();
+
+        try {
+            ps.executeBatch();
+        } catch (SQLException e) {
+            db.rollback(sp);
+            ps.clearBatch();
+
+            for (TrackSnapshot trk : rows) {
+                try {
+                    binder.bind(ps, trk);
+                    ps.executeUpdate();
+                } catch (SQLException e1) {
+                    System.out.println("BatchStatement::execute " + name + " Error: " + trk.getAircraftID() + " " + e1.getMessage());
+                }
+            }
+        }
+
+        db.releaseSavepoint(sp);
+        rows.clear();
+    }
+
+    /**
+     * Method to throw away the rows waiting in the batch
+     */
+    public void clear() {
+        try {
+            ps.clearBatch();
+        } catch (SQLException e) {
+            // Don't care
+        }
+
+        rows.clear();
+    }
+}
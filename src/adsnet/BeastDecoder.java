@@ -0,0 +1,706 @@
+package adsnet;
+
+import java.nio.ByteBuffer;
+
+/*
+ * A decoder for the Mode-S Beast binary format (port 30005).
+ *
+ * The FeedReader removes the <esc> framing and the doubled <esc> bytes, so a
+ * ring slot holds one frame:
+ *
+ *   [type] [6 byte 12 MHz timestamp] [signal level] [7 or 14 byte message]
+ *
+ * The Mode-S message is decoded straight into the Port 30003 (SBS-1) MSG
+ * types and fields, so SocketParse applies it to the Track the same as a
+ * MSG line:
+ *
+ *   DF17/18 identification      MSG 1
+ *   DF17/18 surface position    MSG 2
+ *   DF17/18 airborne position   MSG 3
+ *   DF17/18 velocity            MSG 4
+ *   DF4/20 altitude             MSG 5
+ *   DF5/21 identity             MSG 6
+ *   DF0/16 air-air              MSG 7
+ *   DF11 all call reply         MSG 8
+ *
+ * The extended squitters and all call replies carry the address in the
+ * clear, and are checked with the CRC. The other formats have the address
+ * overlaid on the CRC, so the address recovered from them is only trusted
+ * for a track that already exists.
+ *
+ * The positions are in CPR format, and are decoded in resolve() with the
+ * CPR state kept in the Track.
+ *
+ * A decoder object is reused for every frame, so it is not thread safe.
+ */
+public final class BeastDecoder implements Report {
+
+    private static final long FNVBASIS = 0xCBF29CE484222325L;     // FNV-1a 64-bit
+    private static final long FNVPRIME = 0x100000001B3L;
+    private static final int CRCPOLY = 0xFFF409;                  // Mode-S CRC-24
+    private static final int[] CRCTABLE = new int[256];
+    private static final String CHARSET
+            = "#ABCDEFGHIJKLMNOPQRSTUVWXYZ##### ###############0123456789######";
+    //
+    /*
+     * The ID field bit and the Mode A code bit it goes to, in the order
+     * C1 A1 C2 A2 C4 A4 (M or X) B1 (Q or D1) B2 D2 B4 D4
+     */
+    private static final int[] IDBITS = {
+        0x1000, 0x0010, 0x0800, 0x1000, 0x0400, 0x0020, 0x0200, 0x2000,
+        0x0100, 0x0040, 0x0080, 0x4000, 0x0020, 0x0100, 0x0010, 0x0001,
+        0x0008, 0x0200, 0x0004, 0x0002, 0x0002, 0x0400, 0x0001, 0x0004
+    };
+    /*
+     * The Gray code of the Mode A bits for the hundreds (C1 C2 C4) and the
+     * five hundreds (D2 D4 A1 A2 A4 B1 B2 B4)
+     */
+    private static final int[] ONEBITS = {
+        0x0010, 0x007, 0x0020, 0x003, 0x0040, 0x001
+    };
+    private static final int[] FIVEBITS = {
+        0x0002, 0x0FF, 0x0004, 0x07F, 0x1000, 0x03F, 0x2000, 0x01F,
+        0x4000, 0x00F, 0x0100, 0x007, 0x0200, 0x003, 0x0400, 0x001
+    };
+    //
+    private static final int MAXFIELDS = 22;
+    private static final int HEADER = 8;                // type, timestamp, signal
+    private static final int SHORT = 7;                 // 56 bit message
+    private static final int LONG = 14;                 // 112 bit message
+    //
+    private final int[] ints;
+    private final float[] floats;
+    private final char[] callsign;
+    private final double stationLat;
+    private final double stationLon;
+    private ByteBuffer buf;
+    private int msg;                    // buffer index of the message
+    private int length;                 // message bytes
+    private int present;                // bit mask of the fields decoded
+    private int type;
+    private int icao;
+    private boolean verified;
+    private int callsignLength;
+    private long timestamp;
+    private int signal;
+    //
+    private boolean cprPending;         // position to decode in resolve()
+    private boolean cprSurface;
+    private int cprOdd;
+    private int cprLat;
+    private int cprLon;
+
+    static {
+        int c;
+
+        for (int i = 0; i < 256; i++) {
+            c = i << 16;
+
+            for (int j = 0; j < 8; j++) {
+                c = ((c & 0x800000) != 0) ? (c << 1) ^ CRCPOLY : c << 1;
+            }
+
+            CRCTABLE[i] = c & 0xFFFFFF;
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param lat a double Representing the receiver latitude, or NaN
+     * @param lon a double Representing the receiver longitude, or NaN
+     */
+    public BeastDecoder(double lat, double lon) {
+        ints = new int[MAXFIELDS];
+        floats = new float[MAXFIELDS];
+        callsign = new char[8];
+        stationLat = lat;
+        stationLon = lon;
+        type = -9999;
+    }
+
+    /**
+     * Method to decode a Beast frame
+     *
+     * @param b a ByteBuffer containing the frame
+     * @param start an int Representing the buffer index of the first byte
+     * @param end an int Representing the buffer index after the last byte
+     * @return a boolean which is true if this is a Mode-S message we use
+     */
+    @Override
+    public boolean parse(ByteBuffer b, int start, int end) {
+        int df;
+
+        buf = b;
+        present = 0;
+        type = -9999;
+        verified = false;
+        callsignLength = 0;
+        cprPending = false;
+
+        if ((end - start) == (HEADER + SHORT) && b.get(start) == '2') {
+            length = SHORT;
+        } else if ((end - start) == (HEADER + LONG) && b.get(start) == '3') {
+            length = LONG;
+        } else {
+            return false;       // Mode A/C, status, or a bad frame
+        }
+
+        timestamp = 0L;
+
+        for (int i = 1; i < 7; i++) {
+            timestamp = (timestamp << 8) | (b.get(start + i) & 0xFF);
+        }
+
+        signal = b.get(start + 7) & 0xFF;
+        msg = start + HEADER;
+        df = (b.get(msg) & 0xFF) >>> 3;
+
+        switch (df) {
+            case 17:
+            case 18:
+                return (length == LONG) && decodeExtended(df);
+            case 11:
+                return (length == SHORT) && decodeAllCall();
+            case 0:
+            case 16:
+                return decodeSurveillance(7, df == 16);
+            case 4:
+            case 20:
+                return decodeSurveillance(5, df == 20);
+            case 5:
+            case 21:
+                return decodeSurveillance(6, df == 21);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Method to return the 48-bit receiver timestamp, in 12 MHz ticks, that
+     * multilateration uses
+     *
+     * @return a long Representing the timestamp of the frame
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Method to return the receiver signal level
+     *
+     * @return an int Representing the signal level 0 - 255
+     */
+    public int getSignal() {
+        return signal;
+    }
+
+    /*
+     * Return a message byte as an unsigned int
+     */
+    private int get(int i) {
+        return buf.get(msg + i) & 0xFF;
+    }
+
+    /*
+     * Return the CRC of the message XOR the parity field, which is zero for
+     * a good message with the parity in the clear, or the address when it is
+     * overlaid
+     */
+    private int residual() {
+        int crc = 0;
+        int n = length - 3;
+
+        for (int i = 0; i < n; i++) {
+            crc = ((crc << 8) ^ CRCTABLE[((crc >>> 16) ^ get(i)) & 0xFF]) & 0xFFFFFF;
+        }
+
+        return crc ^ ((get(n) << 16) | (get(n + 1) << 8) | get(n + 2));
+    }
+
+    /*
+     * Return count bits of the 56-bit ME field, from bit first (1 - 56)
+     */
+    private static int bits(long me, int first, int count) {
+        return (int) (me >>> (57 - first - count)) & ((1 << count) - 1);
+    }
+
+    private void setInt(int field, int val) {
+        ints[field] = val;
+        present |= (1 << field);
+    }
+
+    private void setFloat(int field, float val) {
+        floats[field] = val;
+        present |= (1 << field);
+    }
+
+    private boolean has(int field) {
+        return (present & (1 << field)) != 0;
+    }
+
+    /*
+     * DF17 and DF18 extended squitter
+     */
+    private boolean decodeExtended(int df) {
+        long me = 0L;
+        int tc;
+        int st;
+
+        if (residual() != 0) {
+            return false;
+        }
+
+        if (df == 18 && (get(0) & 0x07) != 0) {
+            return false;       // not an ADS-B message with an ICAO address
+        }
+
+        icao = (get(1) << 16) | (get(2) << 8) | get(3);
+        verified = true;
+
+        for (int i = 4; i < 11; i++) {
+            me = (me << 8) | get(i);
+        }
+
+        tc = bits(me, 1, 5);
+
+        if (tc >= 1 && tc <= 4) {
+            type = 1;
+
+            for (int i = 0; i < 8; i++) {
+                callsign[i] = CHARSET.charAt(bits(me, 9 + (i * 6), 6));
+            }
+
+            callsignLength = 8;
+
+            while (callsignLength > 0 && callsign[callsignLength - 1] == ' ') {
+                callsignLength--;
+            }
+
+            setInt(CALLSIGN, 0);
+        } else if (tc >= 5 && tc <= 8) {
+            type = 2;
+            setInt(GROUND, 1);
+            surfaceMovement(bits(me, 6, 7));
+
+            if (bits(me, 13, 1) == 1) {
+                setFloat(GTRACK, bits(me, 14, 7) * 360.0F / 128.0F);
+            }
+
+            setCPR(me, true);
+        } else if ((tc >= 9 && tc <= 18) || (tc >= 20 && tc <= 22)) {
+            type = 3;
+            setInt(GROUND, 0);
+
+            if (tc <= 18) {
+                int alt = altitude12(bits(me, 9, 12));
+
+                if (alt != -9999) {
+                    setInt(ALTITUDE, alt);
+                }
+
+                st = bits(me, 6, 2);
+                setInt(EMERG, (st == 1) ? 1 : 0);
+                setInt(ALERT, (st == 2) ? 1 : 0);
+                setInt(SPI, (st == 3) ? 1 : 0);
+            }
+
+            setCPR(me, false);
+        } else if (tc == 19) {
+            type = 4;
+            velocity(me);
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Remember the CPR position for resolve()
+     */
+    private void setCPR(long me, boolean surface) {
+        cprPending = true;
+        cprSurface = surface;
+        cprOdd = bits(me, 22, 1);
+        cprLat = bits(me, 23, 17);
+        cprLon = bits(me, 40, 17);
+    }
+
+    /*
+     * Convert the surface movement code to knots
+     */
+    private void surfaceMovement(int m) {
+        float val;
+
+        if (m == 1) {
+            val = 0.0F;
+        } else if (m >= 2 && m <= 8) {
+            val = 0.125F + (m - 2) * 0.125F;
+        } else if (m >= 9 && m <= 12) {
+            val = 1.0F + (m - 9) * 0.25F;
+        } else if (m >= 13 && m <= 38) {
+            val = 2.0F + (m - 13) * 0.5F;
+        } else if (m >= 39 && m <= 93) {
+            val = 15.0F + (m - 39);
+        } else if (m >= 94 && m <= 108) {
+            val = 70.0F + (m - 94) * 2.0F;
+        } else if (m >= 109 && m <= 123) {
+            val = 100.0F + (m - 109) * 5.0F;
+        } else if (m == 124) {
+            val = 175.0F;
+        } else {
+            return;     // no information, or reserved
+        }
+
+        setFloat(GSPEED, val);
+    }
+
+    /*
+     * Airborne velocity. The ground speed subtypes give the speed and track,
+     * and the airspeed subtypes only give the vertical rate.
+     */
+    private void velocity(long me) {
+        int subtype = bits(me, 6, 3);
+        int vr = bits(me, 38, 9);
+
+        if (subtype == 1 || subtype == 2) {
+            int scale = (subtype == 2) ? 4 : 1;
+            int ew = bits(me, 15, 10);
+            int ns = bits(me, 26, 10);
+
+            if (ew != 0 && ns != 0) {
+                double vew = (ew - 1) * scale * ((bits(me, 14, 1) == 1) ? -1 : 1);
+                double vns = (ns - 1) * scale * ((bits(me, 25, 1) == 1) ? -1 : 1);
+                double track = Math.toDegrees(Math.atan2(vew, vns));
+
+                if (track < 0.0) {
+                    track += 360.0;
+                }
+
+                setFloat(GSPEED, (float) Math.sqrt((vew * vew) + (vns * vns)));
+                setFloat(GTRACK, (float) track);
+            }
+        } else if (subtype != 3 && subtype != 4) {
+            return;
+        }
+
+        if (vr != 0) {
+            setInt(VRATE, (vr - 1) * 64 * ((bits(me, 37, 1) == 1) ? -1 : 1));
+        }
+    }
+
+    /*
+     * DF11 all call reply. The parity is overlaid with the interrogator ID,
+     * so a small residual is accepted.
+     */
+    private boolean decodeAllCall() {
+        int ca;
+
+        if (residual() >= 0x80) {
+            return false;
+        }
+
+        icao = (get(1) << 16) | (get(2) << 8) | get(3);
+        verified = true;
+        type = 8;
+
+        ca = get(0) & 0x07;
+        setInt(GROUND, (ca == 4) ? 1 : 0);
+
+        return true;
+    }
+
+    /*
+     * DF0/4/16/20 altitude and DF5/21 identity replies, with the address
+     * overlaid on the parity
+     */
+    private boolean decodeSurveillance(int msgType, boolean isLong) {
+        int field;
+        int fs;
+
+        if (isLong != (length == LONG)) {
+            return false;
+        }
+
+        icao = residual();
+        verified = false;
+        type = msgType;
+        field = ((get(2) & 0x1F) << 8) | get(3);
+
+        if (msgType == 7) {
+            if ((get(0) >>> 3) == 0) {
+                setInt(GROUND, ((get(0) & 0x04) != 0) ? 1 : 0);
+            }
+        } else {
+            fs = get(0) & 0x07;
+            setInt(GROUND, (fs == 1 || fs == 3) ? 1 : 0);
+            setInt(ALERT, (fs >= 2 && fs <= 4) ? 1 : 0);
+            setInt(SPI, (fs == 4 || fs == 5) ? 1 : 0);
+        }
+
+        if (msgType == 6) {
+            int hex = gillham(field);
+            int squawk = (((hex >>> 12) & 7) * 1000) + (((hex >>> 8) & 7) * 100)
+                    + (((hex >>> 4) & 7) * 10) + (hex & 7);
+
+            setInt(SQUAWK, squawk);
+            setInt(EMERG, (squawk == 7500 || squawk == 7600 || squawk == 7700) ? 1 : 0);
+        } else {
+            int alt = altitude13(field);
+
+            if (alt != -9999) {
+                setInt(ALTITUDE, alt);
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Decode the 12-bit altitude of an airborne position
+     */
+    private static int altitude12(int ac) {
+        if (ac == 0) {
+            return -9999;
+        }
+
+        if ((ac & 0x10) != 0) {
+            return ((((ac & 0xFE0) >>> 1) | (ac & 0x0F)) * 25) - 1000;
+        }
+
+        return altitude13(((ac & 0xFC0) << 1) | (ac & 0x3F));
+    }
+
+    /*
+     * Decode the 13-bit altitude of a surveillance reply. The metric
+     * altitudes are not used.
+     */
+    private static int altitude13(int ac) {
+        int val;
+
+        if (ac == 0 || (ac & 0x40) != 0) {
+            return -9999;
+        }
+
+        if ((ac & 0x10) != 0) {
+            return ((((ac & 0x1F80) >>> 2) | ((ac & 0x20) >>> 1) | (ac & 0x0F)) * 25) - 1000;
+        }
+
+        val = modeC(gillham(ac));
+
+        return (val == -9999) ? val : val * 100;
+    }
+
+    /*
+     * Rearrange a 13-bit ID or altitude field into the 0xABCD hex order of
+     * the Mode A code bits
+     */
+    private static int gillham(int id) {
+        int val = 0;
+
+        for (int i = 0; i < IDBITS.length; i += 2) {
+            if ((id & IDBITS[i]) != 0) {
+                val |= IDBITS[i + 1];
+            }
+        }
+
+        return val;
+    }
+
+    /*
+     * Convert the Gillham coded Mode A bits to hundreds of feet
+     */
+    private static int modeC(int a) {
+        int fives = 0;
+        int ones = 0;
+
+        if ((a & 0xFFFF8889) != 0 || (a & 0x00F0) == 0) {
+            return -9999;
+        }
+
+        for (int i = 0; i < ONEBITS.length; i += 2) {
+            if ((a & ONEBITS[i]) != 0) {
+                ones ^= ONEBITS[i + 1];
+            }
+        }
+
+        if ((ones & 5) == 5) {
+            ones ^= 2;          // 7 and 5 are swapped
+        }
+
+        if (ones > 5) {
+            return -9999;
+        }
+
+        for (int i = 0; i < FIVEBITS.length; i += 2) {
+            if ((a & FIVEBITS[i]) != 0) {
+                fives ^= FIVEBITS[i + 1];
+            }
+        }
+
+        if ((fives & 1) != 0) {
+            ones = 6 - ones;    // the hundreds count down on odd five hundreds
+        }
+
+        return (fives * 5) + ones - 13;
+    }
+
+    /**
+     * Method to return the message type (1 - 8)
+     *
+     * @return an int Representing the MSG type, or -9999 if none
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Method to return the 24-bit Mode-S address
+     *
+     * @return an int Representing the Mode-S address
+     * @throws NumberFormatException if there is no message
+     */
+    @Override
+    public int getAddress() {
+        if (type == -9999) {
+            throw new NumberFormatException("BeastDecoder: no address");
+        }
+
+        return icao;
+    }
+
+    /**
+     * Method to check if the address was sent in the clear
+     *
+     * @return a boolean which is false if it was recovered from the parity
+     */
+    @Override
+    public boolean isAddressVerified() {
+        return verified;
+    }
+
+    /**
+     * Method to decode the CPR position with the CPR state of the track
+     *
+     * @param trk a Track Representing the aircraft of the report
+     * @param now a long Representing the time the report was received
+     */
+    @Override
+    public void resolve(Track trk, long now) {
+        CPR cpr;
+
+        if (cprPending) {
+            cprPending = false;
+            cpr = trk.getCPR();
+
+            if (cpr.decode(cprOdd, cprLat, cprLon, cprSurface, now, stationLat, stationLon)) {
+                setFloat(LATITUDE, (float) cpr.getLatitude());
+                setFloat(LONGITUDE, (float) cpr.getLongitude());
+            }
+        }
+    }
+
+    /**
+     * Method to return a hash of the Mode-S message, which is the same for a
+     * copy of the message from another receiver. The timestamp and signal
+     * level are not included, as they are made by the receiver.
+     *
+     * @param icao an int Representing the Mode-S address
+     * @param type an int Representing the MSG type
+     * @return a long Representing the FNV-1a hash of the message
+     */
+    @Override
+    public long getFingerprint(int icao, int type) {
+        long h = FNVBASIS;
+
+        h = (h ^ (icao & 0xFF)) * FNVPRIME;
+        h = (h ^ ((icao >>> 8) & 0xFF)) * FNVPRIME;
+        h = (h ^ ((icao >>> 16) & 0xFF)) * FNVPRIME;
+        h = (h ^ (type & 0xFF)) * FNVPRIME;
+
+        for (int i = 0; i < length; i++) {
+            h = (h ^ get(i)) * FNVPRIME;
+        }
+
+        return h;
+    }
+
+    /**
+     * Method to return an integer field
+     *
+     * @param field an int Representing the field number
+     * @param empty an int Representing the value to return if not decoded
+     * @return an int Representing the field value
+     */
+    @Override
+    public int getInt(int field, int empty) {
+        return has(field) ? ints[field] : empty;
+    }
+
+    /**
+     * Method to return a decimal fraction field
+     *
+     * @param field an int Representing the field number
+     * @param empty a float Representing the value to return if not decoded
+     * @return a float Representing the field value
+     */
+    @Override
+    public float getFloat(int field, float empty) {
+        return has(field) ? floats[field] : empty;
+    }
+
+    /**
+     * Method to return a flag field
+     *
+     * @param field an int Representing the field number
+     * @return a boolean which is true if the flag is set
+     */
+    @Override
+    public boolean getFlag(int field) {
+        return getInt(field, 0) != 0;
+    }
+
+    /**
+     * Method to return the on-ground flag
+     *
+     * @return a boolean Representing the OnGround status
+     */
+    @Override
+    public boolean getOnGround() {
+        return getInt(GROUND, 0) != 0;
+    }
+
+    /**
+     * Method to compare the callsign with a string without creating a new
+     * string
+     *
+     * @param val a string Representing the callsign to compare
+     * @return a boolean which is true if the callsign matches
+     */
+    @Override
+    public boolean callsignEquals(String val) {
+        if (callsignLength != val.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < callsignLength; i++) {
+            if (callsign[i] != val.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to return the callsign as a string
+     *
+     * @return a string Representing the callsign, or an empty string
+     */
+    @Override
+    public String getCallsign() {
+        return new String(callsign, 0, callsignLength);
+    }
+}
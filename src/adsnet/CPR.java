@@ -0,0 +1,257 @@
+package adsnet;
+
+/*
+ * The Compact Position Reporting (CPR) state of one aircraft.
+ *
+ * An ADS-B position message only carries 17 bits each of latitude and
+ * longitude, as a position inside a zone, and alternates between an even
+ * and an odd zone size. The first position is found by the global decode,
+ * from an even and an odd message received close together. After that, each
+ * message is decoded on its own with the local decode, using the last
+ * position as the reference.
+ *
+ * The surface messages use zones a quarter of the size, so the global decode
+ * has four answers, and needs a reference position to pick one. The last
+ * position is used, or the receiver position if there isn't one.
+ */
+public final class CPR {
+
+    private static final double CPRSCALE = 131072.0;           // 2^17
+    private static final long AIRBORNEPAIR = 10L * 1000L;       // 10 seconds
+    private static final long SURFACEPAIR = 25L * 1000L;        // 25 seconds
+    private static final long LOCALAGE = 60L * 1000L;           // 60 seconds
+    private static final double AIRBORNERANGE = 3.0;           // degrees latitude
+    private static final double SURFACERANGE = 0.75;           // degrees latitude
+    //
+    /*
+     * The latitudes where the number of longitude zones drops by one, from
+     * 59 at the equator to 2 at 87 degrees
+     */
+    private static final double[] NLTABLE = {
+        10.47047130, 14.82817437, 18.18626357, 21.02939493, 23.54504487,
+        25.82924707, 27.93898710, 29.91135686, 31.77209708, 33.53993436,
+        35.22899598, 36.85025108, 38.41241892, 39.92256684, 41.38651832,
+        42.80914012, 44.19454951, 45.54626723, 46.86733252, 48.16039128,
+        49.42776439, 50.67150166, 51.89342469, 53.09516153, 54.27817472,
+        55.44378444, 56.59318756, 57.72747354, 58.84763776, 59.95459277,
+        61.04917774, 62.13216659, 63.20427479, 64.26616523, 65.31845310,
+        66.36171008, 67.39646774, 68.42322022, 69.44242631, 70.45451075,
+        71.45986473, 72.45884545, 73.45177442, 74.43893416, 75.42056257,
+        76.39684391, 77.36789461, 78.33374083, 79.29428225, 80.24923213,
+        81.19801349, 82.13956981, 83.07199445, 83.99173563, 84.89166191,
+        85.75541621, 86.53536998, 87.00000000
+    };
+    //
+    private final int[] cprLat;         // last even [0] and odd [1] message
+    private final int[] cprLon;
+    private final long[] cprTime;
+    private final boolean[] cprSurface;
+    private double latitude;            // last decoded position
+    private double longitude;
+    private long positionTime;
+
+    public CPR() {
+        cprLat = new int[2];
+        cprLon = new int[2];
+        cprTime = new long[2];
+        cprSurface = new boolean[2];
+        positionTime = 0L;
+    }
+
+    /*
+     * Return the number of longitude zones at a latitude
+     */
+    private static int NL(double lat) {
+        double val = Math.abs(lat);
+
+        for (int i = 0; i < NLTABLE.length; i++) {
+            if (val < NLTABLE[i]) {
+                return 59 - i;
+            }
+        }
+
+        return 1;
+    }
+
+    /*
+     * Modulus that is always positive
+     */
+    private static double mod(double a, double b) {
+        double val = a % b;
+
+        return (val < 0.0) ? val + b : val;
+    }
+
+    /**
+     * Method to decode a position message
+     *
+     * @param odd an int Representing the CPR format, 0 even or 1 odd
+     * @param lat an int Representing the 17-bit encoded latitude
+     * @param lon an int Representing the 17-bit encoded longitude
+     * @param surface a boolean which is true for a surface position
+     * @param now a long Representing the time the message was received
+     * @param refLat a double Representing the receiver latitude, or NaN
+     * @param refLon a double Representing the receiver longitude, or NaN
+     * @return a boolean which is true if the position was decoded
+     */
+    public boolean decode(int odd, int lat, int lon, boolean surface, long now, double refLat, double refLon) {
+        cprLat[odd] = lat;
+        cprLon[odd] = lon;
+        cprTime[odd] = now;
+        cprSurface[odd] = surface;
+
+        if (positionTime != 0L && (now - positionTime) <= LOCALAGE) {
+            return decodeLocal(odd, surface, now);
+        }
+
+        if (surface) {
+            if (positionTime != 0L) {
+                refLat = latitude;
+                refLon = longitude;
+            }
+
+            if (Double.isNaN(refLat) || Double.isNaN(refLon)) {
+                return false;
+            }
+        }
+
+        return decodeGlobal(odd, surface, now, refLat, refLon);
+    }
+
+    /**
+     * Method to return the last decoded latitude
+     *
+     * @return a double Representing the latitude in degrees
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Method to return the last decoded longitude
+     *
+     * @return a double Representing the longitude in degrees
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /*
+     * Decode from an even and an odd message, with the message just received
+     * giving the position
+     */
+    private boolean decodeGlobal(int odd, boolean surface, long now, double refLat, double refLon) {
+        double span = surface ? 90.0 : 360.0;
+        double dlat0 = span / 60.0;
+        double dlat1 = span / 59.0;
+        double lat0 = cprLat[0] / CPRSCALE;
+        double lat1 = cprLat[1] / CPRSCALE;
+        double lon0 = cprLon[0] / CPRSCALE;
+        double lon1 = cprLon[1] / CPRSCALE;
+        double rlat0;
+        double rlat1;
+        double rlat;
+        double rlon;
+        double dlon;
+        int j;
+        int m;
+        int nl;
+        int ni;
+
+        if (cprSurface[0] != surface || cprSurface[1] != surface
+                || Math.abs(cprTime[0] - cprTime[1]) > (surface ? SURFACEPAIR : AIRBORNEPAIR)) {
+            return false;
+        }
+
+        j = (int) Math.floor(59.0 * lat0 - 60.0 * lat1 + 0.5);
+        rlat0 = dlat0 * (mod(j, 60) + lat0);
+        rlat1 = dlat1 * (mod(j, 59) + lat1);
+
+        if (surface) {
+            /*
+             * The answer is in the northern hemisphere, or 90 degrees south
+             * of it, so take the one nearest the reference
+             */
+            if (Math.abs(rlat0 - 90.0 - refLat) < Math.abs(rlat0 - refLat)) {
+                rlat0 -= 90.0;
+                rlat1 -= 90.0;
+            }
+        } else {
+            if (rlat0 >= 270.0) {
+                rlat0 -= 360.0;
+            }
+
+            if (rlat1 >= 270.0) {
+                rlat1 -= 360.0;
+            }
+        }
+
+        if (rlat0 < -90.0 || rlat0 > 90.0 || rlat1 < -90.0 || rlat1 > 90.0) {
+            return false;
+        }
+
+        nl = NL(rlat0);
+
+        if (nl != NL(rlat1)) {
+            return false;       // the pair straddles a zone boundary
+        }
+
+        rlat = (odd == 1) ? rlat1 : rlat0;
+        ni = Math.max(nl - odd, 1);
+        dlon = span / ni;
+        m = (int) Math.floor(lon0 * (nl - 1) - lon1 * nl + 0.5);
+        rlon = dlon * (mod(m, ni) + ((odd == 1) ? lon1 : lon0));
+
+        if (surface) {
+            /*
+             * Move it by 90 degrees at a time to be nearest the reference
+             */
+            rlon += 90.0 * Math.floor((refLon - rlon + 45.0) / 90.0);
+        }
+
+        rlon = mod(rlon + 180.0, 360.0) - 180.0;
+
+        latitude = rlat;
+        longitude = rlon;
+        positionTime = now;
+
+        return true;
+    }
+
+    /*
+     * Decode one message, using the last position as the reference
+     */
+    private boolean decodeLocal(int odd, boolean surface, long now) {
+        double span = surface ? 90.0 : 360.0;
+        double dlat = span / (60.0 - odd);
+        double lat = cprLat[odd] / CPRSCALE;
+        double lon = cprLon[odd] / CPRSCALE;
+        double rlat;
+        double rlon;
+        double dlon;
+        int j;
+        int m;
+        int ni;
+
+        j = (int) (Math.floor(latitude / dlat) + Math.floor(mod(latitude, dlat) / dlat - lat + 0.5));
+        rlat = dlat * (j + lat);
+
+        if (rlat < -90.0 || rlat > 90.0
+                || Math.abs(rlat - latitude) > (surface ? SURFACERANGE : AIRBORNERANGE)) {
+            positionTime = 0L;      // start again with a global decode
+            return false;
+        }
+
+        ni = Math.max(NL(rlat) - odd, 1);
+        dlon = span / ni;
+        m = (int) (Math.floor(longitude / dlon) + Math.floor(mod(longitude, dlon) / dlon - lon + 0.5));
+        rlon = dlon * (m + lon);
+        rlon = mod(rlon + 180.0, 360.0) - 180.0;
+
+        latitude = rlat;
+        longitude = rlon;
+        positionTime = now;
+
+        return true;
+    }
+}
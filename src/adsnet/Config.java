@@ -2,6 +2,8 @@ package adsnet;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /*
@@ -9,17 +11,100 @@ import java.util.Properties;
  */
 public final class Config {
 
+    /*
+     * One Basestation TCP feed
+     */
+    public static final class Feed {
+
+        private final String host;
+        private final int port;
+        private final int radarid;
+        private final boolean beast;
+
+        public Feed(String h, int p, int r, boolean b) {
+            host = h;
+            port = p;
+            radarid = r;
+            beast = b;
+        }
+
+        /**
+         * Getter to return the Basestation IP or Hostname
+         *
+         * @return a string Representing the IP or Hostname of the feed
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Getter to return the Basestation TCP port
+         *
+         * @return an integer Representing the TCP port of the feed
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Getter to return the radar ID the feed positions are recorded with
+         *
+         * @return an int Representing the numeric radar ID of the feed
+         */
+        public int getRadarID() {
+            return radarid;
+        }
+
+        /**
+         * Getter to return the format of the feed
+         *
+         * @return a boolean which is true for Beast binary, or false for
+         * Port 30003 text
+         */
+        public boolean isBeast() {
+            return beast;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port + (beast ? ":beast" : "");
+        }
+    }
+    //
     public static final String STATION_ALT = "station.alt";
     public static final String STATION_METAR = "station.airportmetar";
+    public static final String STATION_LAT = "station.lat";
+    public static final String STATION_LON = "station.lon";
     //
     private int socketPort;
     private int radarid;
     private int radarscan;
     private int databaseTargetTimeout;
+    private int databaseBatchSize;
+    private int pipelineSlots;
+    private int dedupWindow;
+    private int echoDeadband;
+    private int echoAltitude;
+    private int echoTurn;
+    private int echoHeartbeat;
+    private LineRing.Wait pipelineWait;
     private int homeAlt;
+    private double homeLat;
+    private double homeLon;
+    private boolean socketBeast;
+    private boolean messageTime;
     private String[] metarNames;
     private String socketIP;
+    private List<Feed> feeds;
     private String databaseName;
+    private String registryAircraft;
+    private String registryCountries;
+    private String captureDir;
+    private int captureSegment;
+    private int captureMaxAge;
+    private int captureMaxSize;
+    private String[] replayFiles;
+    private double replaySpeed;
     private boolean disablegui;
     //
     private Properties Props;
@@ -32,9 +117,13 @@ public final class Config {
 
         socketIP = "127.0.0.1";
         homeAlt = 0;
+        homeLat = homeLon = Double.NaN;
         radarscan = 3;
         socketPort = 30003;
         databaseTargetTimeout = 3;    // 3 minutes
+        databaseBatchSize = 500;
+        pipelineSlots = 8192;
+        pipelineWait = LineRing.Wait.BLOCK;
         //
         Props = null;
         //
@@ -69,6 +158,28 @@ public final class Config {
                 homeAlt = 0;
             }
 
+            /*
+             * The receiver position is only needed to decode the surface
+             * positions on a Beast feed
+             */
+            temp = Props.getProperty(STATION_LAT);
+            if (temp != null) {
+                try {
+                    homeLat = Double.parseDouble(temp.trim());
+                } catch (NumberFormatException e) {
+                    homeLat = Double.NaN;
+                }
+            }
+
+            temp = Props.getProperty(STATION_LON);
+            if (temp != null) {
+                try {
+                    homeLon = Double.parseDouble(temp.trim());
+                } catch (NumberFormatException e) {
+                    homeLon = Double.NaN;
+                }
+            }
+
             temp = Props.getProperty(STATION_METAR);
             metarNames = temp.toUpperCase().split(",");
 
@@ -130,6 +241,65 @@ public final class Config {
                 }
             }
 
+            temp = Props.getProperty("socket.format");
+            if (temp == null) {
+                socketBeast = false;
+                System.out.println("socket.format not set, set to sbs");
+            } else {
+                socketBeast = temp.trim().toLowerCase().equals("beast");
+            }
+
+            temp = Props.getProperty("time.source");
+            if (temp == null) {
+                messageTime = true;
+                System.out.println("time.source not set, set to message");
+            } else {
+                messageTime = temp.trim().toLowerCase().equals("wall") == false;
+            }
+
+            /*
+             * The feeds are a list of host:port or host:port:radarid, with an
+             * optional :sbs or :beast on the end. The radar ID defaults to
+             * radar.id, and the format to socket.format.
+             */
+            feeds = new ArrayList<>();
+            temp = Props.getProperty("socket.feeds");
+            if (temp == null) {
+                System.out.println("socket.feeds not set, using socket.address and socket.port");
+            } else {
+                for (String feed : temp.split(",")) {
+                    String[] part = feed.trim().split(":");
+                    int count = part.length;
+                    boolean beast = socketBeast;
+
+                    if (count > 2) {
+                        String format = part[count - 1].trim().toLowerCase();
+
+                        if (format.equals("beast") || format.equals("sbs")) {
+                            beast = format.equals("beast");
+                            count--;
+                        }
+                    }
+
+                    try {
+                        if (count == 2) {
+                            feeds.add(new Feed(part[0].trim(), Integer.parseInt(part[1].trim()), radarid, beast));
+                        } else if (count == 3) {
+                            feeds.add(new Feed(part[0].trim(), Integer.parseInt(part[1].trim()),
+                                    Integer.parseInt(part[2].trim()), beast));
+                        } else if (!feed.trim().isEmpty()) {
+                            System.out.println("socket.feeds bad feed ignored: " + feed);
+                        }
+                    } catch (NumberFormatException e) {
+                        System.out.println("socket.feeds bad feed ignored: " + feed);
+                    }
+                }
+            }
+
+            if (feeds.isEmpty()) {
+                feeds.add(new Feed(socketIP, socketPort, radarid, socketBeast));
+            }
+
             temp = Props.getProperty("db.targettimeout");
             if (temp == null) {
                 databaseTargetTimeout = 3;
@@ -142,6 +312,119 @@ public final class Config {
                 }
             }
 
+            temp = Props.getProperty("db.batchsize");
+            if (temp == null) {
+                databaseBatchSize = 500;
+                System.out.println("db.batchsize not set, set to 500");
+            } else {
+                try {
+                    databaseBatchSize = Integer.parseInt(temp.trim());
+
+                    if (databaseBatchSize < 1) {
+                        databaseBatchSize = 1;
+                    }
+                } catch (NumberFormatException e) {
+                    databaseBatchSize = 500;
+                }
+            }
+
+            temp = Props.getProperty("pipeline.slots");
+            if (temp == null) {
+                pipelineSlots = 8192;
+                System.out.println("pipeline.slots not set, set to 8192");
+            } else {
+                try {
+                    pipelineSlots = Integer.parseInt(temp.trim());
+
+                    if (pipelineSlots < 2) {
+                        pipelineSlots = 2;
+                    } else if (pipelineSlots > 1048576) {
+                        pipelineSlots = 1048576;
+                    }
+                } catch (NumberFormatException e) {
+                    pipelineSlots = 8192;
+                }
+            }
+
+            temp = Props.getProperty("pipeline.wait");
+            if (temp == null) {
+                pipelineWait = LineRing.Wait.BLOCK;
+                System.out.println("pipeline.wait not set, set to block");
+            } else {
+                try {
+                    pipelineWait = LineRing.Wait.valueOf(temp.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    pipelineWait = LineRing.Wait.BLOCK;
+                }
+            }
+
+            /*
+             * Duplicate reports are only expected from more than one feed
+             */
+            temp = Props.getProperty("dedup.window");
+            if (temp == null) {
+                dedupWindow = (feeds.size() > 1) ? 250 : 0;
+                System.out.println("dedup.window not set, set to " + dedupWindow + " ms");
+            } else {
+                try {
+                    dedupWindow = Integer.parseInt(temp.trim());
+
+                    if (dedupWindow < 0) {
+                        dedupWindow = 0;
+                    }
+                } catch (NumberFormatException e) {
+                    dedupWindow = (feeds.size() > 1) ? 250 : 0;
+                }
+            }
+
+            temp = Props.getProperty("echo.deadband");
+            if (temp == null) {
+                echoDeadband = 100;
+                System.out.println("echo.deadband not set, set to 100 meters");
+            } else {
+                try {
+                    echoDeadband = Math.max(Integer.parseInt(temp.trim()), 0);
+                } catch (NumberFormatException e) {
+                    echoDeadband = 100;
+                }
+            }
+
+            temp = Props.getProperty("echo.altitude");
+            if (temp == null) {
+                echoAltitude = 100;
+                System.out.println("echo.altitude not set, set to 100 feet");
+            } else {
+                try {
+                    echoAltitude = Math.max(Integer.parseInt(temp.trim()), 0);
+                } catch (NumberFormatException e) {
+                    echoAltitude = 100;
+                }
+            }
+
+            temp = Props.getProperty("echo.turn");
+            if (temp == null) {
+                echoTurn = 5;
+                System.out.println("echo.turn not set, set to 5 degrees");
+            } else {
+                try {
+                    echoTurn = Math.max(Integer.parseInt(temp.trim()), 0);
+                } catch (NumberFormatException e) {
+                    echoTurn = 5;
+                }
+            }
+
+            temp = Props.getProperty("echo.heartbeat");
+            if (temp == null) {
+                echoHeartbeat = 60;
+                System.out.println("echo.heartbeat not set, set to 60 seconds");
+            } else {
+                try {
+                    echoHeartbeat = Math.max(Integer.parseInt(temp.trim()), 1);
+                } catch (NumberFormatException e) {
+                    echoHeartbeat = 60;
+                }
+            }
+
             temp = Props.getProperty("db.name");
             if (temp == null) {
                 databaseName = "adsb.db";
@@ -149,6 +432,89 @@ public final class Config {
             } else {
                 databaseName = temp;
             }
+
+            temp = Props.getProperty("registry.aircraft");
+            if (temp == null) {
+                registryAircraft = null;
+                System.out.println("registry.aircraft not set, no aircraft registry");
+            } else {
+                registryAircraft = temp.trim();
+            }
+
+            temp = Props.getProperty("registry.countries");
+            if (temp == null) {
+                registryCountries = null;
+                System.out.println("registry.countries not set, no country registry");
+            } else {
+                registryCountries = temp.trim();
+            }
+
+            temp = Props.getProperty("capture.dir");
+            if (temp == null) {
+                captureDir = null;
+                System.out.println("capture.dir not set, no feed capture");
+            } else {
+                captureDir = temp.trim();
+            }
+
+            temp = Props.getProperty("capture.segment");
+            if (temp == null) {
+                captureSegment = 60;
+                System.out.println("capture.segment not set, set to 60 minutes");
+            } else {
+                try {
+                    captureSegment = Integer.parseInt(temp.trim());
+
+                    if (captureSegment < 1) {
+                        captureSegment = 1;
+                    }
+                } catch (NumberFormatException e) {
+                    captureSegment = 60;
+                }
+            }
+
+            temp = Props.getProperty("capture.maxage");
+            if (temp == null) {
+                captureMaxAge = 168;
+                System.out.println("capture.maxage not set, set to 168 hours");
+            } else {
+                try {
+                    captureMaxAge = Math.max(Integer.parseInt(temp.trim()), 0);
+                } catch (NumberFormatException e) {
+                    captureMaxAge = 168;
+                }
+            }
+
+            temp = Props.getProperty("capture.maxsize");
+            if (temp == null) {
+                captureMaxSize = 1024;
+                System.out.println("capture.maxsize not set, set to 1024 MB");
+            } else {
+                try {
+                    captureMaxSize = Math.max(Integer.parseInt(temp.trim()), 0);
+                } catch (NumberFormatException e) {
+                    captureMaxSize = 1024;
+                }
+            }
+
+            temp = Props.getProperty("replay.files");
+            if (temp == null || temp.trim().equals("")) {
+                replayFiles = null;
+            } else {
+                replayFiles = temp.trim().split("\\s*,\\s*");
+                System.out.println("replay.files set, replaying " + replayFiles.length + " files");
+            }
+
+            temp = Props.getProperty("replay.speed");
+            if (temp == null) {
+                replaySpeed = 1.0;
+            } else {
+                try {
+                    replaySpeed = Math.max(Double.parseDouble(temp.trim()), 0.0);
+                } catch (NumberFormatException e) {
+                    replaySpeed = 1.0;
+                }
+            }
         }
     }
 
@@ -156,6 +522,25 @@ public final class Config {
         return homeAlt;
     }
 
+    /**
+     * Getter to return the receiver latitude
+     *
+     * @return a double Representing the latitude in degrees, or NaN if not set
+     */
+    public double getHomeLat() {
+        return homeLat;
+    }
+
+    /**
+     * Getter to return the receiver longitude
+     *
+     * @return a double Representing the longitude in degrees, or NaN if not
+     * set
+     */
+    public double getHomeLon() {
+        return homeLon;
+    }
+
     public String[] getMetarNames() {
         return metarNames;
     }
@@ -192,6 +577,15 @@ public final class Config {
         return socketPort;
     }
 
+    /**
+     * Getter to return the Basestation TCP feeds
+     *
+     * @return a list of Feed Representing the feeds to read
+     */
+    public List<Feed> getFeeds() {
+        return feeds;
+    }
+
     /**
      * Getter to return the Basestation IP or Hostname
      *
@@ -227,4 +621,165 @@ public final class Config {
     public int getDatabaseTimeout() {
         return databaseTargetTimeout;
     }
+
+    /**
+     * Getter to return the maximum number of rows in a database batch
+     *
+     * @return an int Representing the number of rows sent in one batch
+     */
+    public int getDatabaseBatchSize() {
+        return databaseBatchSize;
+    }
+
+    /**
+     * Getter to return the aircraft registry file
+     *
+     * @return a string Representing the aircraft CSV file path, or null
+     */
+    public String getRegistryAircraft() {
+        return registryAircraft;
+    }
+
+    /**
+     * Getter to return the country allocation registry file
+     *
+     * @return a string Representing the country CSV file path, or null
+     */
+    public String getRegistryCountries() {
+        return registryCountries;
+    }
+
+    /**
+     * Getter to return the number of lines the decode queue can hold
+     *
+     * @return an int Representing the number of queue slots
+     */
+    public int getPipelineSlots() {
+        return pipelineSlots;
+    }
+
+    /**
+     * Getter to return how the reader and decoder wait for each other
+     *
+     * @return a LineRing.Wait Representing the wait strategy
+     */
+    public LineRing.Wait getPipelineWait() {
+        return pipelineWait;
+    }
+
+    /**
+     * Getter to return how far a position may be off the line of the last
+     * targetecho row before it is written
+     *
+     * @return an int Representing the deadband in meters, or 0 to write
+     * every position
+     */
+    public int getEchoDeadband() {
+        return echoDeadband;
+    }
+
+    /**
+     * Getter to return how far the altitude may change before a targetecho
+     * row is written
+     *
+     * @return an int Representing the altitude change in feet
+     */
+    public int getEchoAltitude() {
+        return echoAltitude;
+    }
+
+    /**
+     * Getter to return how far the track may turn before a targetecho row
+     * is written
+     *
+     * @return an int Representing the turn in degrees
+     */
+    public int getEchoTurn() {
+        return echoTurn;
+    }
+
+    /**
+     * Getter to return the longest time between the targetecho rows of a
+     * target
+     *
+     * @return an int Representing the time in seconds
+     */
+    public int getEchoHeartbeat() {
+        return echoHeartbeat;
+    }
+
+    /**
+     * Getter to check if the Port 30003 lines are timed by the date and time
+     * generated in the line, rather than the time they were received
+     *
+     * @return a boolean which is true for the message time
+     */
+    public boolean isMessageTime() {
+        return messageTime;
+    }
+
+    /**
+     * Getter to return the time a duplicate report is dropped for
+     *
+     * @return an int Representing the window in milliseconds, or 0 if off
+     */
+    public int getDedupWindow() {
+        return dedupWindow;
+    }
+
+    /**
+     * Getter to return the directory the raw feed lines are recorded in
+     *
+     * @return a string Representing the capture directory, or null if off
+     */
+    public String getCaptureDir() {
+        return captureDir;
+    }
+
+    /**
+     * Getter to return how long each capture file covers
+     *
+     * @return an int Representing the segment period in minutes
+     */
+    public int getCaptureSegment() {
+        return captureSegment;
+    }
+
+    /**
+     * Getter to return how long the capture files are kept
+     *
+     * @return an int Representing the maximum age in hours, or 0 for no limit
+     */
+    public int getCaptureMaxAge() {
+        return captureMaxAge;
+    }
+
+    /**
+     * Getter to return the most disk space the capture files may use
+     *
+     * @return an int Representing the maximum size in MB, or 0 for no limit
+     */
+    public int getCaptureMaxSize() {
+        return captureMaxSize;
+    }
+
+    /**
+     * Getter to return the recorded logs to play back in place of the feeds
+     *
+     * @return a string array Representing the log files, or null for the live
+     * feeds
+     */
+    public String[] getReplayFiles() {
+        return replayFiles;
+    }
+
+    /**
+     * Getter to return how fast the recorded logs are played back
+     *
+     * @return a double Representing the multiple of real time, or 0 for as
+     * fast as possible
+     */
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
 }
@@ -0,0 +1,63 @@
+package adsnet;
+
+/*
+ * A cache of the report fingerprints seen recently, to drop the copies of a
+ * report that arrive from overlapping receivers.
+ *
+ * It is a fixed-size, direct-mapped table of fingerprints and the times they
+ * were seen, indexed by the low bits of the fingerprint. An entry older than
+ * the window is treated as empty, and is overwritten by the next fingerprint
+ * that maps to its slot, so nothing has to be swept out. Two reports that
+ * map to the same slot just push each other out, which costs a missed
+ * duplicate, but never drops a report that isn't one.
+ *
+ * It is only used by the SocketParse thread, so it is not thread safe.
+ */
+public final class DedupCache {
+
+    private final long[] fingerprints;
+    private final long[] times;
+    private final int mask;
+    private final long window;
+
+    /**
+     * Class constructor
+     *
+     * @param size an int Representing the number of entries (rounded up to a
+     * power of two)
+     * @param w a long Representing the window in milliseconds
+     */
+    public DedupCache(int size, long w) {
+        int slots = 2;
+
+        while (slots < size) {
+            slots <<= 1;
+        }
+
+        fingerprints = new long[slots];
+        times = new long[slots];
+        mask = slots - 1;
+        window = w;
+    }
+
+    /**
+     * Method to check a report, and remember it if it is new
+     *
+     * @param fingerprint a long Representing the report fingerprint
+     * @param now a long Representing the time the report was received
+     * @return a boolean which is true if the same report was seen within the
+     * window
+     */
+    public boolean isDuplicate(long fingerprint, long now) {
+        int i = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+
+        if (fingerprints[i] == fingerprint && times[i] != 0L && (now - times[i]) <= window) {
+            return true;
+        }
+
+        fingerprints[i] = fingerprint;
+        times[i] = now;
+
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+package adsnet;
+
+/*
+ * This decides which target positions are written to the targetecho table.
+ *
+ * A cruising aircraft reports a position every second or so, almost all of
+ * them on the straight line from the one before. The last row written is
+ * flown on at its speed and track to the time of the new position, and the
+ * new position is only written if it is off that line by more than the
+ * deadband, or the altitude or the track has changed by more than their
+ * limits, or the target has landed or taken off. A row is always written
+ * after the heartbeat time, so a plot still shows a steady target.
+ *
+ * The writer holds back the latest position that was on the line. When a
+ * new one is needed, the held one is written first, as it is where the
+ * target left the line, and the new one is checked again from there.
+ *
+ * A deadband of 0 writes every position.
+ */
+public final class EchoDeadband {
+
+    private static final double METERSPERNM = 1852.0;
+    //
+    private final double distance;         // nautical miles
+    private final int altitude;             // feet
+    private final float turn;               // degrees
+    private final long heartbeat;          // milliseconds
+
+    /**
+     * Class constructor
+     *
+     * @param meters an int Representing the most a position may be off the
+     * predicted line, or 0 to write every position
+     * @param feet an int Representing the most the altitude may change
+     * @param degrees an int Representing the most the track may turn
+     * @param seconds an int Representing the longest time between rows
+     */
+    public EchoDeadband(int meters, int feet, int degrees, int seconds) {
+        distance = meters / METERSPERNM;
+        altitude = feet;
+        turn = degrees;
+        heartbeat = seconds * 1000L;
+    }
+
+    /**
+     * Method to check if the new position of a target should be written
+     *
+     * @param last an Echo Representing the last row written for the flight
+     * @param trk a TrackSnapshot Representing the target with the new position
+     * @param ground an int Representing 1 if the target is on the ground
+     * @return a boolean which is true if the position should be written
+     */
+    public boolean isNeeded(FlightCache.Echo last, TrackSnapshot trk, int ground) {
+        long gap;
+
+        if (distance == 0.0 || last.isValid() == false) {
+            return true;
+        }
+
+        gap = trk.getUpdatePositionTime() - last.getPositionTime();
+
+        if (gap >= heartbeat || gap < 0L || ground != last.getOnGround()) {
+            return true;
+        }
+
+        if ((trk.getAltitude() == -9999) != (last.getAltitude() == -9999)
+                || Math.abs(trk.getAltitude() - last.getAltitude()) > altitude) {
+            return true;
+        }
+
+        if (turned(last.getTrack(), trk)) {
+            return true;
+        }
+
+        return offLine(last, trk, gap);
+    }
+
+    /*
+     * Return true if the track has turned more than the limit
+     */
+    private boolean turned(float from, TrackSnapshot trk) {
+        float to = trk.getGroundTrack();
+        float val;
+
+        if (to == -999.0F || trk.getGroundSpeed() == -999.0F) {
+            to = trk.getComputedGroundTrack();
+        }
+
+        if (from == -999.0F || to == -999.0F) {
+            return false;
+        }
+
+        val = Math.abs(to - from);
+
+        return Math.min(val, 360.0F - val) > turn;
+    }
+
+    /*
+     * Return true if the position is further than the deadband from where
+     * the last row would be now, on its speed and track
+     */
+    private boolean offLine(FlightCache.Echo last, TrackSnapshot trk, long gap) {
+        double lat = last.getLatitude();
+        double lon = last.getLongitude();
+        double coslat = Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+        double flown;
+        double track;
+        double dlat;
+        double dlon;
+
+        if (last.getSpeed() != -999.0F && last.getTrack() != -999.0F) {
+            flown = (last.getSpeed() * gap) / 3600000.0;    // nautical miles
+            track = Math.toRadians(last.getTrack());
+            lat += (flown * Math.cos(track)) / 60.0;
+            lon += (flown * Math.sin(track)) / (60.0 * coslat);
+        }
+
+        dlat = (trk.getLatitude() - lat) * 60.0;
+        dlon = trk.getLongitude() - lon;
+
+        if (dlon >= 180.0) {
+            dlon -= 360.0;
+        } else if (dlon < -180.0) {
+            dlon += 360.0;
+        }
+
+        dlon *= 60.0 * coslat;
+
+        return ((dlat * dlat) + (dlon * dlon)) > (distance * distance);
+    }
+}
@@ -0,0 +1,368 @@
+package adsnet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * This is a thread that records the raw Port 30003 lines to disk, so the
+ * stream behind something odd in the database can be looked at, or played
+ * back.
+ *
+ * The SocketParse thread copies each line into a LineRing with tryOffer(),
+ * which never waits, so a slow disk drops capture lines, and not feed
+ * lines. This thread takes the lines, and writes them to segment files
+ * named by the time of their first line:
+ *
+ *   sbs-<start ms>.log.gz   the lines, with <CR><LF>
+ *   sbs-<start ms>.idx      "<time ms> <file offset>" of each block
+ *
+ * The lines are collected into blocks of up to BLOCKSIZE bytes, and each
+ * block is written as its own gzip member. The members join up into one
+ * gzip file that zcat reads from the start, but reading can also start at
+ * any block offset in the index, so a time can be found without
+ * decompressing the segment up to it.
+ *
+ * A new segment is started every segment period, and the oldest segments
+ * are deleted when they are older than the maximum age, or the segments
+ * use more than the maximum size.
+ */
+public final class FeedCapture extends Thread {
+
+    private static final int SLOTS = 16384;                     // lines queued
+    private static final int BLOCKSIZE = 1024 * 1024;           // 1 MB blocks
+    private static final long BLOCKAGE = 10L * 1000L;           // 10 seconds
+    private static final long IDLE = 100L;                      // 100 ms
+    private static final long JOINWAIT = 5000L;                 // 5 seconds
+    private static final String PREFIX = "sbs-";
+    private static final String SUFFIX = ".log.gz";
+    private static final String INDEX = ".idx";
+    private static final byte[] GZIPHEADER = {
+        (byte) 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF
+    };
+    //
+    private final File dir;
+    private final long segmentTime;
+    private final long maxAge;
+    private final long maxSize;
+    private final LineRing ring;
+    //
+    private final byte[] block;
+    private final byte[] output;
+    private final byte[] trailer;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private int blockLength;
+    private long blockTime;             // time of the first line
+    private long blockStarted;          // wall clock time it was added
+    //
+    private FileOutputStream segment;
+    private BufferedWriter index;
+    private long segmentStart;
+    private long segmentSize;
+    private boolean failed;
+
+    /**
+     * Class constructor
+     *
+     * @param d a string Representing the directory of the segment files
+     * @param segment a long Representing the segment period in milliseconds
+     * @param age a long Representing the oldest segment kept in
+     * milliseconds, or 0 for no limit
+     * @param size a long Representing the most bytes of segments kept, or 0
+     * for no limit
+     */
+    public FeedCapture(String d, long segment, long age, long size) {
+        dir = new File(d);
+        segmentTime = segment;
+        maxAge = age;
+        maxSize = size;
+        ring = new LineRing(SLOTS, LineRing.Wait.PARK);
+
+        block = new byte[BLOCKSIZE];
+        output = new byte[64 * 1024];
+        trailer = new byte[8];
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        crc = new CRC32();
+        blockLength = 0;
+        failed = false;
+
+        if (dir.isDirectory() == false && dir.mkdirs() == false) {
+            System.err.println("FeedCapture unable to create directory " + dir);
+            failed = true;
+        }
+
+        setName("FeedCapture");
+        setPriority(Thread.NORM_PRIORITY - 1);
+    }
+
+    /**
+     * Method for the SocketParse thread to record a line. It doesn't wait,
+     * and drops the line if the writer has fallen behind.
+     *
+     * @param src a ByteBuffer containing the line
+     * @param start an int Representing the buffer index of the first byte
+     * @param end an int Representing the buffer index after the last byte
+     * @param time a long Representing the receive time in milliseconds
+     */
+    public void offer(ByteBuffer src, int start, int end, long time) {
+        ring.tryOffer(src, start, end, time);
+    }
+
+    /**
+     * Method to return the number of lines not recorded
+     *
+     * @return a long Representing the lines dropped
+     */
+    public long getDropCount() {
+        return ring.getFullCount() + ring.getDropCount();
+    }
+
+    /**
+     * Method to stop recording. The lines already queued are written, and
+     * the segment is closed.
+     */
+    public void close() {
+        ring.close();
+
+        try {
+            join(JOINWAIT);
+        } catch (InterruptedException e) {
+            // Don't care
+        }
+
+        if (getDropCount() > 0L) {
+            System.out.println("FeedCapture dropped " + getDropCount() + " lines");
+        }
+    }
+
+    /**
+     * Thread to write the queued lines to the segment files
+     *
+     * <p>
+     * When the queue is empty it sleeps, as the lines are not needed in a
+     * hurry, and writes out a block that has been waiting BLOCKAGE.
+     */
+    @Override
+    public void run() {
+        int slot;
+
+        for (;;) {
+            if ((slot = ring.poll()) != -1) {
+                putLine(ring.getBuffer(), ring.getStart(slot), ring.getEnd(slot), ring.getTime(slot));
+                ring.release();
+            } else if (ring.isDrained()) {
+                break;
+            } else {
+                if (blockLength > 0 && (System.currentTimeMillis() - blockStarted) >= BLOCKAGE) {
+                    writeBlock();
+                }
+
+                try {
+                    Thread.sleep(IDLE);
+                } catch (InterruptedException e) {
+                    // Don't care
+                }
+            }
+        }
+
+        closeSegment();
+        deflater.end();
+    }
+
+    /*
+     * Add a line to the block
+     */
+    private void putLine(ByteBuffer src, int start, int end, long time) {
+        int len = end - start;
+
+        if (failed) {
+            return;
+        }
+
+        if (segment == null || (time - segmentStart) >= segmentTime) {
+            openSegment(time);
+
+            if (failed) {
+                return;
+            }
+        }
+
+        if ((blockLength + len + 2) > BLOCKSIZE) {
+            writeBlock();
+        }
+
+        if (blockLength == 0) {
+            blockTime = time;
+            blockStarted = System.currentTimeMillis();
+        }
+
+        for (int i = 0; i < len; i++) {
+            block[blockLength++] = src.get(start + i);
+        }
+
+        block[blockLength++] = '\r';
+        block[blockLength++] = '\n';
+    }
+
+    /*
+     * Compress the block as one gzip member, and add it to the index
+     */
+    private void writeBlock() {
+        long offset = segmentSize;
+        int count;
+
+        if (failed || segment == null || blockLength == 0) {
+            return;
+        }
+
+        crc.reset();
+        crc.update(block, 0, blockLength);
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+
+        try {
+            segment.write(GZIPHEADER);
+            segmentSize += GZIPHEADER.length;
+
+            while (deflater.finished() == false) {
+                count = deflater.deflate(output);
+                segment.write(output, 0, count);
+                segmentSize += count;
+            }
+
+            putInt(trailer, 0, (int) crc.getValue());
+            putInt(trailer, 4, blockLength);
+            segment.write(trailer);
+            segmentSize += trailer.length;
+
+            index.write(blockTime + " " + offset);
+            index.newLine();
+            index.flush();
+        } catch (IOException e) {
+            System.err.println("FeedCapture::writeBlock exception " + e.toString());
+            failed = true;
+            closeSegment();
+        }
+
+        blockLength = 0;
+    }
+
+    /*
+     * Little endian int for the gzip trailer
+     */
+    private static void putInt(byte[] b, int i, int val) {
+        b[i] = (byte) val;
+        b[i + 1] = (byte) (val >>> 8);
+        b[i + 2] = (byte) (val >>> 16);
+        b[i + 3] = (byte) (val >>> 24);
+    }
+
+    /*
+     * Close the current segment, and start a new one at this time
+     */
+    private void openSegment(long time) {
+        closeSegment();
+
+        try {
+            segment = new FileOutputStream(new File(dir, PREFIX + time + SUFFIX));
+            index = new BufferedWriter(new FileWriter(new File(dir, PREFIX + time + INDEX)));
+            segmentStart = time;
+            segmentSize = 0L;
+        } catch (IOException e) {
+            System.err.println("FeedCapture::openSegment exception " + e.toString());
+            failed = true;
+            closeSegment();
+            return;
+        }
+
+        removeOld(time);
+    }
+
+    /*
+     * Write out the last block, and close the segment files
+     */
+    private void closeSegment() {
+        writeBlock();
+        blockLength = 0;
+
+        try {
+            if (segment != null) {
+                segment.close();
+            }
+
+            if (index != null) {
+                index.close();
+            }
+        } catch (IOException e) {
+            System.err.println("FeedCapture::closeSegment exception " + e.toString());
+        }
+
+        segment = null;
+        index = null;
+    }
+
+    /*
+     * Delete the oldest segments that are over the age or size limit. The
+     * current segment is always kept.
+     */
+    private void removeOld(long now) {
+        String[] names = dir.list();
+        long[] starts;
+        long total = 0L;
+        long start;
+        boolean full = false;
+        int count = 0;
+        String name;
+        File file;
+
+        if (names == null) {
+            return;
+        }
+
+        starts = new long[names.length];
+
+        for (String n : names) {
+            if (n.startsWith(PREFIX) && n.endsWith(SUFFIX)) {
+                try {
+                    start = Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length()));
+                    starts[count++] = start;
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+
+        starts = Arrays.copyOf(starts, count);
+        Arrays.sort(starts);
+
+        for (int i = count - 1; i >= 0; i--) {
+            name = PREFIX + starts[i];
+            file = new File(dir, name + SUFFIX);
+            total += file.length();
+
+            if (starts[i] == segmentStart) {
+                continue;
+            }
+
+            if (maxSize > 0L && total > maxSize) {
+                full = true;    // this one and all the older ones go
+            }
+
+            if (full || (maxAge > 0L && (starts[i] + segmentTime) < (now - maxAge))) {
+                if (file.delete()) {
+                    new File(dir, name + INDEX).delete();
+                } else {
+                    System.err.println("FeedCapture unable to delete " + file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package adsnet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/*
+ * This is a thread that reads the Port 30003 Format or Beast binary TCP data.
+ *
+ * The socket is read through a blocking SocketChannel into a direct buffer,
+ * so the thread sleeps in the kernel until bytes arrive. Each complete
+ * <CR><LF> line, or Beast frame, is copied into the LineRing with its
+ * receive time, and is decoded by the consumer thread. This thread does
+ * nothing else, so the socket is kept drained when the consumer falls behind
+ * in a burst.
+ *
+ * A Beast frame starts with <esc> (0x1A) and a type byte, and any <esc> in
+ * the frame is sent twice. The frame is put in the ring with the <esc>
+ * removed and the doubled bytes made single.
+ */
+public final class FeedReader extends Thread {
+
+    private static final int BUFSIZE = 64 * 1024;              // socket buffer
+    private static final byte ESC = 0x1A;                       // Beast frame start
+    //
+    private final String host;
+    private final int port;
+    private final boolean beast;
+    private final LineRing ring;
+    private final ByteBuffer buffer;
+    private final byte[] frame;         // unescaped Beast frame
+    private final ByteBuffer frameBuffer;
+    private SocketChannel channel;
+    private volatile boolean EOF;
+
+    /**
+     * Class constructor
+     *
+     * @param h a string Representing the Basestation IP or Hostname
+     * @param p an int Representing the Basestation TCP port
+     * @param b a boolean which is true for a Beast binary feed
+     * @param r a LineRing to put the lines into
+     */
+    public FeedReader(String h, int p, boolean b, LineRing r) {
+        host = h;
+        port = p;
+        beast = b;
+        ring = r;
+        buffer = ByteBuffer.allocateDirect(BUFSIZE);
+        frame = new byte[32];
+        frameBuffer = ByteBuffer.wrap(frame);
+
+        setName("FeedReader");
+        setPriority(Thread.NORM_PRIORITY + 1);
+    }
+
+    /**
+     * A method to open a blocking channel connection to a TCP server
+     */
+    private void openSBSSocket() {
+        EOF = false;
+
+        try {
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.configureBlocking(true);
+        } catch (IOException e) {
+            System.err.println("FeedReader::openSBSSocket unable to connect " + e.toString());
+            EOF = true;
+        }
+    }
+
+    /**
+     * Method to close down the network TCP interface
+     */
+    public void close() {
+        EOF = true;
+
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("FeedReader::close exception " + e.toString());
+        }
+
+        ring.close();
+    }
+
+    /**
+     * Thread to wait for socket data and put the lines into the ring
+     *
+     * <p>
+     * The read blocks until the kernel has bytes for us. Each complete line
+     * or frame in the buffer is copied to the ring, and any partial one is
+     * compacted to the front of the buffer for the next read.
+     */
+    @Override
+    public void run() {
+        long time;
+        int start;
+
+        openSBSSocket();
+
+        while (EOF == false) {
+            try {
+                if (channel.read(buffer) < 0) {
+                    EOF = true;     // server closed the connection
+                    break;
+                }
+
+                time = System.currentTimeMillis();
+                buffer.flip();
+
+                if (beast) {
+                    start = putFrames(buffer.position(), buffer.limit(), time);
+                } else {
+                    start = putLines(buffer.position(), buffer.limit(), time);
+                }
+
+                buffer.position(start);
+
+                if (buffer.remaining() == buffer.capacity()) {
+                    buffer.clear();     // line too long, toss it out
+                } else {
+                    buffer.compact();
+                }
+            } catch (IOException e) {
+                if (EOF == false) {
+                    System.err.println("FeedReader::run read exception " + e.toString());
+                    EOF = true;
+                }
+            }
+        }
+
+        ring.close();
+    }
+
+    /*
+     * Put the complete <CR><LF> lines into the ring, and return the buffer
+     * index of the partial line
+     */
+    private int putLines(int start, int limit, long time) {
+        int end;
+
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                end = i;
+
+                if ((end > start) && (buffer.get(end - 1) == '\r')) {
+                    end--;
+                }
+
+                if (end > start) {
+                    ring.offer(buffer, start, end, time);
+                }
+
+                start = i + 1;
+            }
+        }
+
+        return start;
+    }
+
+    /*
+     * Return the frame size after the <esc>, including the type byte, or 0
+     * if the type isn't known
+     */
+    private static int frameSize(byte type) {
+        switch (type) {
+            case '1':
+                return 1 + 6 + 1 + 2;       // Mode A/C
+            case '2':
+                return 1 + 6 + 1 + 7;       // Mode-S short
+            case '3':
+                return 1 + 6 + 1 + 14;      // Mode-S long
+            default:
+                return 0;
+        }
+    }
+
+    /*
+     * Put the complete Beast frames into the ring, and return the buffer
+     * index of the partial frame. A frame cut short by the next <esc> is
+     * tossed out, and the bytes before a frame start are skipped.
+     */
+    private int putFrames(int start, int limit, long time) {
+        int size;
+        int count;
+        int i;
+        byte b;
+
+        while (start < limit) {
+            if (buffer.get(start) != ESC) {
+                start++;
+                continue;
+            }
+
+            if ((start + 1) >= limit) {
+                break;      // wait for the type
+            }
+
+            size = frameSize(buffer.get(start + 1));
+
+            if (size == 0) {
+                start++;    // not a frame start, look again
+                continue;
+            }
+
+            count = 0;
+
+            for (i = start + 1; count < size && i < limit; i++) {
+                b = buffer.get(i);
+
+                if (b == ESC) {
+                    if ((i + 1) >= limit) {
+                        break;
+                    }
+
+                    if (buffer.get(i + 1) != ESC) {
+                        break;      // the next frame started early
+                    }
+
+                    i++;
+                }
+
+                frame[count++] = b;
+            }
+
+            if (count == size) {
+                ring.offer(frameBuffer, 0, size, time);
+                start = i;
+            } else if ((i + 1) < limit) {
+                start = i;          // resync on the <esc> that cut it short
+            } else {
+                break;              // wait for the rest of the frame
+            }
+        }
+
+        return start;
+    }
+}
@@ -0,0 +1,424 @@
+package adsnet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * This is the database writer's memory of the target rows it has written.
+ *
+ * It maps the Aircraft ID (ACID) to the flight_id of its row in the target
+ * table, so the targetecho and callsign rows can be written with the id,
+ * rather than looking it up in the target table each time.
+ *
+ * It also remembers the callsign and registration already written for the
+ * flight, so they are only written again when they change. The callsign
+ * utcupdate is kept here, and written once when the callsign changes or the
+ * flight fades. Likewise the last targetecho row written, and the latest
+ * one held back by the EchoDeadband, which is written when the flight fades.
+ *
+ * An entry must be removed when its target row is moved to the history, as
+ * the aircraft will be given a new flight_id if it pops up again.
+ *
+ * The database writer changes the entries as it writes a scan, before the
+ * scan is committed. So a flight is saved with touch() before the scan
+ * first changes it, and if the scan is rolled back, the flights it touched
+ * are put back as they were, and the ones it added are forgotten.
+ *
+ * This is not thread safe. The users synchronize on the database connection.
+ */
+public final class FlightCache {
+
+    /*
+     * One targetecho row, written or held back
+     */
+    public static final class Echo {
+
+        private float latitude;
+        private float longitude;
+        private int altitude;
+        private long time;              // utcdetect of the row
+        private long positionTime;      // time of the position
+        private int trend;
+        private int ground;
+        private int radar;
+        private float track;            // degrees, or -999.0
+        private float speed;            // knots, or -999.0
+        private boolean valid;
+
+        /**
+         * Method to fill in the row from a track. The reported velocity is
+         * used if there is one, otherwise the computed velocity.
+         *
+         * @param trk a TrackSnapshot Representing the target
+         * @param gnd an int Representing 1 if the target is on the ground
+         */
+        public void set(TrackSnapshot trk, int gnd) {
+            latitude = trk.getLatitude();
+            longitude = trk.getLongitude();
+            altitude = trk.getAltitude();
+            time = trk.getUpdateTime();
+            positionTime = trk.getUpdatePositionTime();
+            trend = trk.getVerticalTrend();
+            ground = gnd;
+            radar = trk.getPositionRadarID();
+
+            if (trk.getGroundTrack() != -999.0F && trk.getGroundSpeed() != -999.0F) {
+                track = trk.getGroundTrack();
+                speed = trk.getGroundSpeed();
+            } else {
+                track = trk.getComputedGroundTrack();
+                speed = trk.getComputedGroundSpeed();
+            }
+
+            valid = true;
+        }
+
+        /**
+         * Method to copy another row
+         *
+         * @param val an Echo Representing the row to copy
+         */
+        public void set(Echo val) {
+            latitude = val.latitude;
+            longitude = val.longitude;
+            altitude = val.altitude;
+            time = val.time;
+            positionTime = val.positionTime;
+            trend = val.trend;
+            ground = val.ground;
+            radar = val.radar;
+            track = val.track;
+            speed = val.speed;
+            valid = val.valid;
+        }
+
+        /**
+         * Method to forget the row
+         */
+        public void clear() {
+            valid = false;
+        }
+
+        /**
+         * Method to check if there is a row
+         *
+         * @return a boolean which is true if the row has been set
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        public float getLatitude() {
+            return latitude;
+        }
+
+        public float getLongitude() {
+            return longitude;
+        }
+
+        public int getAltitude() {
+            return altitude;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getPositionTime() {
+            return positionTime;
+        }
+
+        public int getVerticalTrend() {
+            return trend;
+        }
+
+        public int getOnGround() {
+            return ground;
+        }
+
+        public int getRadarID() {
+            return radar;
+        }
+
+        public float getTrack() {
+            return track;
+        }
+
+        public float getSpeed() {
+            return speed;
+        }
+    }
+
+    /*
+     * One target row
+     */
+    public static final class Flight {
+
+        private final String acid;
+        private final long flightID;
+        private String callsign;        // callsign row written
+        private long callsignTime;      // callsign last seen
+        private long callsignUpdate;    // callsign utcupdate written
+        private String registration;    // registration written, or null
+        private final Echo lastEcho;    // targetecho row written
+        private final Echo heldEcho;    // latest row not written
+        //
+        private boolean touched;        // saved for the scan being written
+        private boolean added;          // first put in the scan being written
+        private String savedCallsign;   // as at the last commit
+        private long savedCallsignTime;
+        private long savedCallsignUpdate;
+        private String savedRegistration;
+        private final Echo savedLastEcho;
+        private final Echo savedHeldEcho;
+
+        public Flight(String val, long id) {
+            acid = val;
+            flightID = id;
+            callsign = "";
+            callsignTime = callsignUpdate = 0L;
+            registration = null;
+            lastEcho = new Echo();
+            heldEcho = new Echo();
+            savedLastEcho = new Echo();
+            savedHeldEcho = new Echo();
+            touched = added = false;
+        }
+
+        /**
+         * Method to return the Mode-S Hex ID
+         *
+         * @return a string Representing the Mode-S Hex ID
+         */
+        public String getAircraftID() {
+            return acid;
+        }
+
+        /**
+         * Method to return the target row flight_id
+         *
+         * @return a long Representing the flight_id
+         */
+        public long getFlightID() {
+            return flightID;
+        }
+
+        /**
+         * Method to return the callsign that has a row for this flight
+         *
+         * @return a string Representing the callsign, or an empty string
+         */
+        public String getCallsign() {
+            return callsign;
+        }
+
+        /**
+         * Method to record a callsign row that has just been written
+         *
+         * @param val a string Representing the callsign
+         * @param time a long Representing the utcdetect and utcupdate written
+         */
+        public void setCallsign(String val, long time) {
+            callsign = val;
+            callsignTime = callsignUpdate = time;
+        }
+
+        /**
+         * Method to return the last time the callsign was seen
+         *
+         * @return a long Representing the time in milliseconds
+         */
+        public long getCallsignTime() {
+            return callsignTime;
+        }
+
+        /**
+         * Method to record that the callsign was seen again
+         *
+         * @param time a long Representing the time in milliseconds
+         */
+        public void setCallsignTime(long time) {
+            callsignTime = time;
+        }
+
+        /**
+         * Method to check if the callsign utcupdate needs to be written
+         *
+         * @return a boolean which is true if the callsign was seen since
+         */
+        public boolean getCallsignPending() {
+            return !callsign.equals("") && (callsignTime != callsignUpdate);
+        }
+
+        /**
+         * Method to record that the callsign utcupdate was written
+         */
+        public void clearCallsignPending() {
+            callsignUpdate = callsignTime;
+        }
+
+        /**
+         * Method to return the registration written for this flight
+         *
+         * @return a string Representing the registration, or null if the
+         * modestable row hasn't been looked at yet
+         */
+        public String getRegistration() {
+            return registration;
+        }
+
+        /**
+         * Method to record the registration that has just been written
+         *
+         * @param val a string Representing the registration
+         */
+        public void setRegistration(String val) {
+            registration = val;
+        }
+
+        /**
+         * Method to return the last targetecho row written for this flight
+         *
+         * @return an Echo Representing the row, which isn't valid if none
+         */
+        public Echo getLastEcho() {
+            return lastEcho;
+        }
+
+        /**
+         * Method to return the latest targetecho row held back, which is
+         * written when the flight fades
+         *
+         * @return an Echo Representing the row, which isn't valid if none
+         */
+        public Echo getHeldEcho() {
+            return heldEcho;
+        }
+
+        /*
+         * Save the values as they were at the last commit
+         */
+        private void save() {
+            savedCallsign = callsign;
+            savedCallsignTime = callsignTime;
+            savedCallsignUpdate = callsignUpdate;
+            savedRegistration = registration;
+            savedLastEcho.set(lastEcho);
+            savedHeldEcho.set(heldEcho);
+        }
+
+        /*
+         * Put back the values saved at the last commit
+         */
+        private void restore() {
+            callsign = savedCallsign;
+            callsignTime = savedCallsignTime;
+            callsignUpdate = savedCallsignUpdate;
+            registration = savedRegistration;
+            lastEcho.set(savedLastEcho);
+            heldEcho.set(savedHeldEcho);
+        }
+    }
+    //
+    private final HashMap<String, Flight> flights;
+    private final List<Flight> touched;     // changed since the last commit
+
+    public FlightCache() {
+        flights = new HashMap<>();
+        touched = new ArrayList<>();
+    }
+
+    /**
+     * Method to return the Flight of an ACID or null if not found
+     *
+     * @param acid a string Representing the Mode-S Hex ID
+     * @return a Flight Representing the target row, or null if none found
+     */
+    public Flight get(String acid) {
+        return flights.get(acid);
+    }
+
+    /**
+     * Method to remember the flight_id of an ACID, which is forgotten again
+     * if the scan is rolled back
+     *
+     * @param acid a string Representing the Mode-S Hex ID
+     * @param id a long Representing the flight_id
+     * @return a Flight Representing the target row
+     */
+    public Flight put(String acid, long id) {
+        Flight val = new Flight(acid, id);
+
+        val.touched = val.added = true;
+        touched.add(val);
+        flights.put(acid, val);
+
+        return val;
+    }
+
+    /**
+     * Method to save a flight before the scan being written first changes it
+     *
+     * @param val a Flight Representing the target row
+     */
+    public void touch(Flight val) {
+        if (val.touched == false) {
+            val.save();
+            val.touched = true;
+            touched.add(val);
+        }
+    }
+
+    /**
+     * Method to forget an ACID, after its target row has been moved out
+     *
+     * @param acid a string Representing the Mode-S Hex ID
+     * @return a Flight Representing the removed target row, or null
+     */
+    public Flight remove(String acid) {
+        return flights.remove(acid);
+    }
+
+    /**
+     * Method to keep the changes, after the scan has been committed
+     */
+    public void commit() {
+        for (Flight val : touched) {
+            val.touched = val.added = false;
+        }
+
+        touched.clear();
+    }
+
+    /**
+     * Method to undo the changes, after the scan has been rolled back. The
+     * flights the scan added are forgotten, and the rest are put back as
+     * they were at the last commit.
+     */
+    public void rollback() {
+        for (Flight val : touched) {
+            if (val.added == true) {
+                if (flights.get(val.acid) == val) {
+                    flights.remove(val.acid);
+                }
+            } else {
+                val.restore();
+            }
+
+            val.touched = val.added = false;
+        }
+
+        touched.clear();
+    }
+
+    /**
+     * Method to return all the cached flights
+     *
+     * @return a collection of the Flight entries
+     */
+    public Collection<Flight> values() {
+        return flights.values();
+    }
+}
@@ -0,0 +1,444 @@
+package adsnet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A bounded single-producer/single-consumer ring of text lines.
+ *
+ * The slots are preallocated in one buffer, SLOTSIZE bytes each, so a line
+ * is copied in by the reader thread and parsed in place by the consumer
+ * thread, and nothing is allocated per line. The receive time of each line
+ * is kept with it.
+ *
+ * The head and tail are counters that only ever increase. Only the consumer
+ * writes the head, and only the producer writes the tail, so no locks or
+ * compare-and-set are needed. Each side keeps a copy of the other's counter,
+ * and only reads the real one when the copy says the ring is full or empty.
+ *
+ * A consumer may read several rings, one per feed, and uses await() to wait
+ * for a line in any of them.
+ *
+ * When a side has to wait, it uses the configured Wait strategy:
+ *
+ *   SPIN   busy loop, lowest latency, uses a whole core
+ *   YIELD  give up the time slice between checks
+ *   PARK   sleep for PARKNANOS between checks
+ *   BLOCK  sleep until the other side signals
+ */
+public final class LineRing {
+
+    public enum Wait {
+        SPIN, YIELD, PARK, BLOCK
+    }
+    //
+    public static final int SLOTSIZE = 256;         // longest line kept
+    private static final long PARKNANOS = 50000L;   // 50 microseconds
+    private static final long BLOCKNANOS = 10000000L;   // 10 ms, just in case
+    //
+    private final ByteBuffer buffer;
+    private final int[] lengths;
+    private final long[] times;
+    private final int mask;
+    private final Wait wait;
+    //
+    private final AtomicLong head;      // next slot to read
+    private final AtomicLong tail;      // next slot to write
+    private long headCache;             // producer copy of head
+    private long tailCache;             // consumer copy of tail
+    //
+    private volatile Thread producer;   // waiting for space (BLOCK)
+    private volatile Thread consumer;   // waiting for a line (BLOCK)
+    private volatile boolean closed;
+    //
+    private volatile int highWater;     // most lines waiting
+    private volatile long fullCount;    // times the producer found it full
+    private volatile long dropCount;    // lines too long for a slot
+
+    /**
+     * Class constructor
+     *
+     * @param size an int Representing the number of slots (rounded up to a
+     * power of two)
+     * @param w a Wait Representing the wait strategy
+     */
+    public LineRing(int size, Wait w) {
+        int slots = 2;
+
+        while (slots < size) {
+            slots <<= 1;
+        }
+
+        buffer = ByteBuffer.allocate(slots * SLOTSIZE);
+        lengths = new int[slots];
+        times = new long[slots];
+        mask = slots - 1;
+        wait = w;
+
+        head = new AtomicLong(0L);
+        tail = new AtomicLong(0L);
+        headCache = tailCache = 0L;
+        closed = false;
+        highWater = 0;
+        fullCount = dropCount = 0L;
+    }
+
+    /*
+     * Wait once, for the other side to make progress
+     */
+    private void pause() {
+        switch (wait) {
+            case SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                LockSupport.parkNanos(PARKNANOS);
+                break;
+            case BLOCK:
+                LockSupport.parkNanos(this, BLOCKNANOS);
+        }
+    }
+
+    /*
+     * Publish a counter. The BLOCK strategy needs a full fence, so a waiter
+     * that checks just before it parks can't miss the new value.
+     */
+    private void publish(AtomicLong counter, long val) {
+        if (wait == Wait.BLOCK) {
+            counter.set(val);
+        } else {
+            counter.lazySet(val);
+        }
+    }
+
+    /**
+     * Method to copy a line into the ring, waiting for space if it is full.
+     * Only the producer thread may call this.
+     *
+     * @param src a ByteBuffer containing the line
+     * @param start an int Representing the buffer index of the first byte
+     * @param end an int Representing the buffer index after the last byte
+     * @param time a long Representing the receive time in milliseconds
+     * @return a boolean which is false if the line was dropped
+     */
+    public boolean offer(ByteBuffer src, int start, int end, long time) {
+        long t = tail.get();
+        int len = end - start;
+
+        if (len > SLOTSIZE) {
+            dropCount++;
+            return false;
+        }
+
+        if ((t - headCache) > mask) {
+            headCache = head.get();
+
+            if ((t - headCache) > mask) {
+                fullCount++;
+
+                while ((t - headCache) > mask) {
+                    if (closed) {
+                        return false;
+                    }
+
+                    if (wait == Wait.BLOCK) {
+                        producer = Thread.currentThread();
+
+                        if ((t - head.get()) > mask) {
+                            pause();
+                        }
+
+                        producer = null;
+                    } else {
+                        pause();
+                    }
+
+                    headCache = head.get();
+                }
+            }
+        }
+
+        put(t, src, start, len, time);
+
+        return true;
+    }
+
+    /**
+     * Method to copy a line into the ring without waiting. Only the producer
+     * thread may call this.
+     *
+     * @param src a ByteBuffer containing the line
+     * @param start an int Representing the buffer index of the first byte
+     * @param end an int Representing the buffer index after the last byte
+     * @param time a long Representing the receive time in milliseconds
+     * @return a boolean which is false if the ring was full, or the line was
+     * too long
+     */
+    public boolean tryOffer(ByteBuffer src, int start, int end, long time) {
+        long t = tail.get();
+        int len = end - start;
+
+        if (len > SLOTSIZE) {
+            dropCount++;
+            return false;
+        }
+
+        if ((t - headCache) > mask) {
+            headCache = head.get();
+
+            if ((t - headCache) > mask) {
+                fullCount++;
+                return false;
+            }
+        }
+
+        put(t, src, start, len, time);
+
+        return true;
+    }
+
+    /*
+     * Copy a line into the tail slot, and publish it
+     */
+    private void put(long t, ByteBuffer src, int start, int len, long time) {
+        int offset = (int) (t & mask) * SLOTSIZE;
+        int depth;
+        Thread waiter;
+
+        for (int i = 0; i < len; i++) {
+            buffer.put(offset + i, src.get(start + i));
+        }
+
+        lengths[(int) (t & mask)] = len;
+        times[(int) (t & mask)] = time;
+        publish(tail, t + 1);
+
+        /*
+         * The copy of the head is only brought up to date when the ring
+         * looks full, so the depth it gives can be far too big. It is read
+         * again before a new high water mark is kept.
+         */
+        depth = (int) (t + 1 - headCache);
+
+        if (depth > highWater) {
+            headCache = head.get();
+            depth = (int) (t + 1 - headCache);
+
+            if (depth > highWater) {
+                highWater = depth;
+            }
+        }
+
+        if (wait == Wait.BLOCK && (waiter = consumer) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Method to return the next line without waiting. Only the consumer
+     * thread may call this, and it must call release() when it is done with
+     * the line.
+     *
+     * @return an int Representing the slot of the line, or -1 if the ring is
+     * empty
+     */
+    public int poll() {
+        long h = head.get();
+
+        if (h == tailCache) {
+            tailCache = tail.get();
+
+            if (h == tailCache) {
+                return -1;
+            }
+        }
+
+        return (int) (h & mask);
+    }
+
+    /**
+     * Method to check if the ring has been closed, and the consumer has taken
+     * all the lines
+     *
+     * @return a boolean which is true if there will be no more lines
+     */
+    public boolean isDrained() {
+        return closed && (head.get() == tail.get());
+    }
+
+    /*
+     * Return true if the consumer has something to do
+     */
+    private boolean isReady() {
+        return closed || (head.get() != tail.get());
+    }
+
+    /**
+     * Method for the consumer to wait until one of its rings has a line, or
+     * is closed. The wait strategy of the first ring is used.
+     *
+     * @param rings an array of LineRing the consumer reads
+     */
+    public static void await(LineRing[] rings) {
+        Thread self = Thread.currentThread();
+        Wait wait = rings[0].wait;
+
+        for (;;) {
+            for (LineRing r : rings) {
+                if (r.isReady()) {
+                    return;
+                }
+            }
+
+            if (wait == Wait.BLOCK) {
+                boolean ready = false;
+
+                for (LineRing r : rings) {
+                    r.consumer = self;
+                }
+
+                for (LineRing r : rings) {
+                    ready |= r.isReady();
+                }
+
+                if (ready == false) {
+                    rings[0].pause();
+                }
+
+                for (LineRing r : rings) {
+                    r.consumer = null;
+                }
+            } else {
+                rings[0].pause();
+            }
+        }
+    }
+
+    /**
+     * Method to give the slot from poll() back to the producer
+     */
+    public void release() {
+        Thread waiter;
+
+        publish(head, head.get() + 1);
+
+        if (wait == Wait.BLOCK && (waiter = producer) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Method to return the buffer the lines are in
+     *
+     * @return a ByteBuffer containing the slots
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Method to return the buffer index of a line
+     *
+     * @param slot an int Representing the slot from poll()
+     * @return an int Representing the buffer index of the first byte
+     */
+    public int getStart(int slot) {
+        return slot * SLOTSIZE;
+    }
+
+    /**
+     * Method to return the buffer index after a line
+     *
+     * @param slot an int Representing the slot from poll()
+     * @return an int Representing the buffer index after the last byte
+     */
+    public int getEnd(int slot) {
+        return slot * SLOTSIZE + lengths[slot];
+    }
+
+    /**
+     * Method to return the time a line was received
+     *
+     * @param slot an int Representing the slot from poll()
+     * @return a long Representing the receive time in milliseconds
+     */
+    public long getTime(int slot) {
+        return times[slot];
+    }
+
+    /**
+     * Method to stop the ring. The consumer gets the lines already in it,
+     * and then it is drained.
+     */
+    public void close() {
+        Thread waiter;
+
+        closed = true;
+
+        if ((waiter = consumer) != null) {
+            LockSupport.unpark(waiter);
+        }
+
+        if ((waiter = producer) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Method to return the number of slots
+     *
+     * @return an int Representing the ring size
+     */
+    public int getSize() {
+        return mask + 1;
+    }
+
+    /**
+     * Method to return the number of lines waiting to be taken
+     *
+     * @return an int Representing the queue depth
+     */
+    public int getDepth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Method to return the most lines waiting since the last reset
+     *
+     * @return an int Representing the queue high water mark
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    /**
+     * Method to return the times the producer found the ring full since the
+     * last reset
+     *
+     * @return a long Representing the full count
+     */
+    public long getFullCount() {
+        return fullCount;
+    }
+
+    /**
+     * Method to return the number of lines dropped as too long
+     *
+     * @return a long Representing the dropped line count
+     */
+    public long getDropCount() {
+        return dropCount;
+    }
+
+    /**
+     * Method to reset the high water mark and full count. These are not
+     * exact, as the producer may be updating them at the same time.
+     */
+    public void resetMetrics() {
+        highWater = 0;
+        fullCount = 0L;
+    }
+}
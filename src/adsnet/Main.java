@@ -47,6 +47,11 @@ public final class Main {
         SocketParse con = new SocketParse(c);
         ADSBDatabase db = new ADSBDatabase(c, con);
 
+        /*
+         * A recorded log is played once the database is ready for it
+         */
+        con.startReplay();
+
         System.out.println("Program started");
 
         /*
@@ -276,14 +276,16 @@ public final class MetarUpdater {
                             windSpeed,
                             windGust);
 
-                    try {
-                        query = con.createStatement();
-                        query.executeUpdate(queryString);
-                    } catch (SQLException e2) {
-                        System.err.println("MetarUpdater::Insert error " + e2.getMessage());
-                    }
+                    synchronized (con) {    // the database writer shares this connection
+                        try {
+                            query = con.createStatement();
+                            query.executeUpdate(queryString);
+                        } catch (SQLException e2) {
+                            System.err.println("MetarUpdater::Insert error " + e2.getMessage());
+                        }
 
-                    query.close();
+                        query.close();
+                    }
                     
                     Thread.sleep(5000L); // give the ftp some breathing room
                 }
@@ -0,0 +1,217 @@
+package adsnet;
+
+/*
+ * An alpha-beta filter of the position and altitude reports of one aircraft,
+ * which gives the ground speed, ground track and vertical rate computed from
+ * the position history, for the aircraft that don't send their velocity, or
+ * to check the ones that do.
+ *
+ * Each report moves the predicted position part of the way (ALPHA) to the
+ * reported one, and the velocity by BETA of the miss over the time since the
+ * last report. The position is kept in degrees, and the miss is measured in
+ * nautical miles north and east, so there is no map projection to set up,
+ * and nothing is allocated per report.
+ *
+ * A report too soon after the last one is skipped, as the time difference
+ * would blow up the velocity, and after a long gap the filter starts again.
+ */
+public final class MotionFilter {
+
+    private static final double ALPHA = 0.3;
+    private static final double BETA = (ALPHA * ALPHA) / (2.0 - ALPHA);     // Benedict-Bordner
+    private static final long MINGAP = 200L;                    // 200 ms
+    private static final long MAXGAP = 60L * 1000L;             // 60 seconds
+    private static final int SETTLE = 3;                        // reports before valid
+    private static final double MINSPEED = 1.0;                 // knots for a track
+    //
+    private double latitude;            // filtered position, degrees
+    private double longitude;
+    private double north;               // velocity, nautical miles per second
+    private double east;
+    private double altitude;            // filtered altitude, feet
+    private double climb;               // feet per second
+    private long time;
+    private int count;                  // position reports since the start
+    private int altitudeCount;          // altitude reports since the start
+
+    public MotionFilter() {
+        count = 0;
+        altitudeCount = 0;
+    }
+
+    /**
+     * Method to start the filter again at the next report, when the target
+     * has jumped
+     */
+    public void reset() {
+        count = 0;
+        altitudeCount = 0;
+    }
+
+    /*
+     * Longitude, or longitude difference, in -180 to 180 degrees
+     */
+    private static double wrap(double val) {
+        if (val >= 180.0) {
+            val -= 360.0;
+        } else if (val < -180.0) {
+            val += 360.0;
+        }
+
+        return val;
+    }
+
+    /**
+     * Method to filter a position report
+     *
+     * @param lat a double Representing the reported latitude in degrees
+     * @param lon a double Representing the reported longitude in degrees
+     * @param alt an int Representing the reported altitude in feet, or -9999
+     * @param now a long Representing the time of the report in milliseconds
+     * @return a boolean which is true if the filter used the report
+     */
+    public boolean update(double lat, double lon, int alt, long now) {
+        long gap = now - time;
+        double dt;
+        double coslat;
+        double missNorth;
+        double missEast;
+
+        if (count == 0 || gap > MAXGAP || gap < 0L) {
+            latitude = lat;
+            longitude = lon;
+            north = east = 0.0;
+            time = now;
+            count = 1;
+            updateAltitude(alt, 0.0);
+            return true;
+        }
+
+        if (gap < MINGAP) {
+            return false;
+        }
+
+        dt = gap / 1000.0;
+        coslat = Math.cos(Math.toRadians(latitude));
+
+        /*
+         * Predict, and measure the miss in nautical miles
+         */
+        latitude += (north * dt) / 60.0;
+        longitude = wrap(longitude + (east * dt) / (60.0 * Math.max(coslat, 0.01)));
+
+        missNorth = (lat - latitude) * 60.0;
+        missEast = wrap(lon - longitude) * 60.0 * coslat;
+
+        if (count == 1) {
+            /*
+             * The second report gives the first velocity
+             */
+            north = missNorth / dt;
+            east = missEast / dt;
+            latitude = lat;
+            longitude = lon;
+        } else {
+            latitude += (ALPHA * missNorth) / 60.0;
+            longitude = wrap(longitude + (ALPHA * missEast) / (60.0 * Math.max(coslat, 0.01)));
+            north += (BETA * missNorth) / dt;
+            east += (BETA * missEast) / dt;
+        }
+
+        updateAltitude(alt, dt);
+
+        time = now;
+        count++;
+
+        return true;
+    }
+
+    /*
+     * Filter the altitude of a position report. The climb starts again when
+     * the altitude goes missing.
+     */
+    private void updateAltitude(int alt, double dt) {
+        double miss;
+
+        if (alt == -9999) {
+            altitudeCount = 0;
+            return;
+        }
+
+        if (altitudeCount == 0 || dt == 0.0) {
+            altitude = alt;
+            climb = 0.0;
+            altitudeCount = 1;
+            return;
+        }
+
+        altitude += climb * dt;
+        miss = alt - altitude;
+
+        if (altitudeCount == 1) {
+            climb = miss / dt;
+            altitude = alt;
+        } else {
+            altitude += ALPHA * miss;
+            climb += (BETA * miss) / dt;
+        }
+
+        altitudeCount++;
+    }
+
+    /**
+     * Method to check if the filter has settled on a velocity
+     *
+     * @return a boolean which is true if the speed and track can be used
+     */
+    public boolean isValid() {
+        return count >= SETTLE;
+    }
+
+    /**
+     * Method to check if the filter has settled on a climb rate
+     *
+     * @return a boolean which is true if the vertical rate can be used
+     */
+    public boolean isVerticalValid() {
+        return altitudeCount >= SETTLE;
+    }
+
+    /**
+     * Method to return the computed ground speed
+     *
+     * @return a float Representing the ground speed in knots
+     */
+    public float getGroundSpeed() {
+        return (float) (Math.sqrt((north * north) + (east * east)) * 3600.0);
+    }
+
+    /**
+     * Method to return the computed ground track. A target that is standing
+     * still has no track.
+     *
+     * @return a float Representing the ground track in degrees true north,
+     * or -999.0 if stopped
+     */
+    public float getGroundTrack() {
+        double val;
+
+        if (getGroundSpeed() < MINSPEED) {
+            return -999.0F;
+        }
+
+        val = Math.toDegrees(Math.atan2(east, north));
+
+        return (float) ((val < 0.0) ? val + 360.0 : val);
+    }
+
+    /**
+     * Method to return the computed vertical rate
+     *
+     * @return an int Representing the climb or descent rate in feet per
+     * minute
+     */
+    public int getVerticalRate() {
+        return (int) Math.round(climb * 60.0);
+    }
+}
@@ -1,7 +1,20 @@
 package adsnet;
 
+/*
+ * Converts between the US ICAO addresses (A00001 - ADF7C7) and the
+ * N-Number registrations.
+ *
+ * The N-Number strings are kept in a table indexed by the address, which is
+ * filled in the first time each address is looked up, so an aircraft only
+ * pays for the conversion once. The reverse conversion works on the
+ * characters in place, without making any substrings.
+ */
 public final class NConverter {
 
+    private static final int ICAOMIN = 0xA00001;   // The lowest possible number
+    private static final int ICAOMAX = 0xADF7C7;   // The highest possible number
+    private static final int MAXLENGTH = 6;         // N + 5 characters
+    //
     private final String base9;         // The first digit (after the "N")
                                         // is always one of these.
     private final String base10;        // The possible second and third digits
@@ -14,123 +27,189 @@ public final class NConverter {
     private final int icaooffset;       // The lowest possible number
     private final int b1;               // basis between N1... and N2...
     private final int b2;               // basis between N10.... and N11....
+    //
+    private final String[] table;       // N-Number of each address, or null
+    private final char[] nnum;          // work space for the conversion
 
     NConverter() {
         base9 = "123456789";
         base10 = "0123456789";
         base34 = "ABCDEFGHJKLMNPQRSTUVWXYZ0123456789";
-        icaooffset = 0xA00001;
+        icaooffset = ICAOMIN;
         b1 = 101711;
         b2 = 10111;
+
+        table = new String[ICAOMAX - ICAOMIN + 1];
+        nnum = new char[MAXLENGTH];
     }
 
-    private String suffix(int rem) {
-        String suf;
-        
+    private int suffix(int rem, int len) {
         // Produces the alpha(numeric) suffix from a number 0 - 950
+        // into the work space, and returns the new length
         if (rem == 0) {
-            suf = "";
+            return len;
         } else if (rem <= 600) {  // Class A suffix -- only letters.
             rem--;
-            suf = Character.toString(base34.charAt(rem / 25));
+            nnum[len++] = base34.charAt(rem / 25);
 
             if (rem % 25 > 0) {
-                suf += Character.toString(base34.charAt((rem % 25) - 1)); // second class A letter, if present.
+                nnum[len++] = base34.charAt((rem % 25) - 1); // second class A letter, if present.
             }
         } else {    // rem > 600 : First digit of suffix is a number.  Second digit may be blank, letter, or number.
             rem -= 601;
-            suf = Character.toString(base10.charAt(rem / 35));
-            
+            nnum[len++] = base10.charAt(rem / 35);
+
             if (rem % 35 > 0) {
-                suf += Character.toString(base34.charAt((rem % 35) - 1));
+                nnum[len++] = base34.charAt((rem % 35) - 1);
             }
         }
 
-        return suf;
+        return len;
     }
 
-    private int enc_suffix(String suf) {
+    private int enc_suffix(String tail, int start) {
         int r0;
         int r1;
 
-        // Produces a remainder from a 0 - 2 digit suffix.
-        // No error checking.  Using illegal strings will have strange results."""
+        // Produces a remainder from a 0 - 2 digit suffix starting at the
+        // given index, or -1 if it is not a legal suffix.
 
-        if (suf.length() == 0) {
+        if (start == tail.length()) {
             return 0;
         }
-        
-        r0 = base34.indexOf(suf.charAt(0));
-        
-        if (suf.length() == 1) {
+
+        if ((tail.length() - start) > 2) {
+            return -1;
+        }
+
+        r0 = base34.indexOf(Character.toUpperCase(tail.charAt(start)));
+
+        if (r0 == -1) {
+            return -1;
+        }
+
+        if ((tail.length() - start) == 1) {
             r1 = 0;
         } else {
-            r1 = base34.indexOf(suf.charAt(1)) + 1;
+            r1 = base34.indexOf(Character.toUpperCase(tail.charAt(start + 1))) + 1;
+
+            if (r1 == 0 || (r0 < 24 && r1 > 24)) {
+                return -1;      // a letter suffix is only letters
+            }
         }
 
         if (r0 < 24) {
             return r0 * 25 + r1 + 1;    // first char is a letter, use base 25
-        } else {  
+        } else {
             return r0 * 35 + r1 - 239;  // first is a number -- base 35.
         }
     }
 
-    public String icao_to_n(String val) {
-        String nnum;
-        int icao;
+    /*
+     * Convert an address in the US range to its N-Number
+     */
+    private String convert(int icao) {
+        int len;
         int d1;
         int d2;
         int d3;
         int r1;
         int r2;
         int r3;
-        
-        icao = Integer.parseInt(val.toUpperCase(), 16);
-
-        /*
-         * N Numbers fit in this range. Other ICAO not decoded.
-         */
-        if ((icao < 0xA00001) || (icao > 0xADF7C7)) {
-            return "";
-        }
 
         icao -= icaooffset;     // A00001
         d1 = icao / b1;
-        nnum = "N" + Character.toString(base9.charAt(d1));
+        nnum[0] = 'N';
+        nnum[1] = base9.charAt(d1);
+        len = 2;
         r1 = icao % b1;
 
         if (r1 < 601) {
-            nnum += suffix(r1); // of the form N1ZZ
+            len = suffix(r1, len); // of the form N1ZZ
         } else {
             d2 = (r1 - 601) / b2; // find second digit.
-            nnum += Character.toString(base10.charAt(d2));
+            nnum[len++] = base10.charAt(d2);
             r2 = (r1 - 601) % b2;  // and residue after that
 
             if (r2 < 601) {
-                nnum += suffix(r2);   // No third digit.(form N12ZZ
+                len = suffix(r2, len);   // No third digit.(form N12ZZ
             } else {
                 d3 = (r2 - 601) / 951; // Three-digits have extended suffix.
                 r3 = (r2 - 601) % 951;
-                nnum += Character.toString(base10.charAt(d3)) + suffix(r3);
+                nnum[len++] = base10.charAt(d3);
+                len = suffix(r3, len);
+            }
+        }
+
+        return new String(nnum, 0, len);
+    }
+
+    /**
+     * Method to return the N-Number of a Mode-S address
+     *
+     * @param icao an int Representing the Mode-S address
+     * @return a string Representing the N-Number, or an empty string if the
+     * address is not in the US range
+     */
+    public String icao_to_n(int icao) {
+        String val;
+
+        /*
+         * N Numbers fit in this range. Other ICAO not decoded.
+         */
+        if ((icao < ICAOMIN) || (icao > ICAOMAX)) {
+            return "";
+        }
+
+        synchronized (table) {
+            val = table[icao - ICAOMIN];
+
+            if (val == null) {
+                val = convert(icao);
+                table[icao - ICAOMIN] = val;
             }
         }
 
-        return nnum;
+        return val;
+    }
+
+    /**
+     * Method to return the N-Number of a Mode-S Hex ID
+     *
+     * @param val a string Representing the Mode-S Hex ID
+     * @return a string Representing the N-Number, or an empty string if the
+     * address is not in the US range
+     */
+    public String icao_to_n(String val) {
+        return icao_to_n(Integer.parseInt(val, 16));
     }
 
+    /**
+     * Method to return the Mode-S address of an N-Number
+     *
+     * @param tail a string Representing the N-Number
+     * @return an int Representing the Mode-S address, or -1 if it is not a
+     * legal N-Number
+     */
     public int n_to_icao(String tail) {
+        int d1;
         int d2;
         int d3;
+        int rem;
         int icao;
-        
-        tail = tail.toUpperCase();
-        
-        if (!tail.startsWith("N")) {
+
+        if (tail.length() < 2 || tail.length() > MAXLENGTH
+                || Character.toUpperCase(tail.charAt(0)) != 'N') {
+            return -1;
+        }
+
+        d1 = base9.indexOf(tail.charAt(1));
+
+        if (d1 == -1) {
             return -1;
         }
 
-        icao = icaooffset;
-        icao += base9.indexOf(tail.charAt(1)) * b1;
+        icao = icaooffset + d1 * b1;
 
         if (tail.length() == 2) { // simple 'N3' etc.
             return icao;
@@ -139,22 +218,37 @@ public final class NConverter {
         d2 = base10.indexOf(tail.charAt(2));
 
         if (d2 == -1) {
-            icao += enc_suffix(tail.substring(2, 4));    // Form N1A
+            rem = enc_suffix(tail, 2);    // Form N1A
+
+            if (rem == -1 || rem > 600) {
+                return -1;
+            }
         } else {
             icao += d2 * b2 + 601;    // Form N11... or N111..
+            rem = 0;
 
             if (tail.length() != 3) { // simple 'N34' etc.
                 d3 = base10.indexOf(tail.charAt(3));
 
                 if (d3 > -1) {  // Form N111 Suffix is base 35.
                     icao += d3 * 951 + 601;
-                    icao += enc_suffix(tail.substring(4, 6));
+                    rem = enc_suffix(tail, 4);
                 } else {    // Form N11A
-                    icao += enc_suffix(tail.substring(3, 5));
+                    rem = enc_suffix(tail, 3);
+
+                    if (rem > 600) {
+                        return -1;
+                    }
                 }
             }
         }
 
-        return icao;
+        if (rem == -1) {
+            return -1;
+        }
+
+        icao += rem;
+
+        return (icao > ICAOMAX) ? -1 : icao;
     }
 }
@@ -0,0 +1,219 @@
+package adsnet;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * This is a thread that plays back recorded Port 30003 (SBS-1) logs in place
+ * of the feed readers, to test the database and timeouts, or to load a day
+ * of traffic after the fact.
+ *
+ * The files are read in the order given. A plain file is memory mapped in
+ * windows, so the lines are copied straight from the page cache into the
+ * LineRing. A .gz file, like the FeedCapture segments, is read through a
+ * GZIPInputStream with the same line framing.
+ *
+ * The time of each line is the generated date and time in the line, and the
+ * TimeSource is run on it, so the tracks age the way they did when the log
+ * was recorded. In the PACED mode the lines are sent when they are due, and
+ * in the STEP mode as fast as the ring takes them.
+ */
+public final class ReplayReader extends Thread {
+
+    private static final long WINDOW = 64L * 1024L * 1024L;     // 64 MB mapped
+    private static final int BUFSIZE = 64 * 1024;              // gzip buffer
+    //
+    private final String[] files;
+    private final LineRing ring;
+    private final TimeSource clock;
+    private final SBSParser parser;
+    private final byte[] input;
+    private final ByteBuffer inputBuffer;
+    private long lastTime;
+    private long lines;
+    private volatile boolean EOF;
+
+    /**
+     * Class constructor
+     *
+     * @param f a string array Representing the log files in time order
+     * @param r a LineRing to put the lines into
+     * @param c a TimeSource Representing the replay clock
+     */
+    public ReplayReader(String[] f, LineRing r, TimeSource c) {
+        files = f;
+        ring = r;
+        clock = c;
+        parser = new SBSParser();
+        input = new byte[BUFSIZE];
+        inputBuffer = ByteBuffer.wrap(input);
+        lastTime = 0L;
+        lines = 0L;
+        EOF = false;
+
+        setName("ReplayReader");
+        setPriority(Thread.NORM_PRIORITY + 1);
+    }
+
+    /**
+     * Method to stop the replay
+     */
+    public void close() {
+        EOF = true;
+        ring.close();
+        interrupt();
+    }
+
+    /**
+     * Thread to read the log files and put the lines into the ring
+     */
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        long elapsed;
+
+        for (int i = 0; i < files.length && EOF == false; i++) {
+            try {
+                if (files[i].endsWith(".gz")) {
+                    readStream(files[i]);
+                } else {
+                    readMapped(files[i]);
+                }
+            } catch (IOException e) {
+                System.err.println("ReplayReader::run exception " + files[i] + " " + e.toString());
+            }
+        }
+
+        elapsed = Math.max(1L, System.currentTimeMillis() - start);
+
+        System.out.println("Replay finished " + lines + " lines in " + elapsed + " ms, "
+                + (lines * 1000L / elapsed) + " lines/s");
+
+        ring.close();
+    }
+
+    /*
+     * Read a plain file through memory mapped windows. The next window starts
+     * at the partial line the last one ended with.
+     */
+    private void readMapped(String name) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        FileChannel channel = file.getChannel();
+        ByteBuffer map;
+        long size = channel.size();
+        long position = 0L;
+        int start;
+
+        try {
+            while (position < size && EOF == false) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+                start = putLines(map, 0, map.limit());
+
+                if (start == 0 && map.limit() == WINDOW) {
+                    start = map.limit();    // line too long, toss it out
+                }
+
+                if ((position + map.limit()) >= size) {
+                    if (start < map.limit()) {
+                        putLine(map, start, map.limit());   // no <CR><LF> at the end
+                    }
+
+                    break;
+                }
+
+                position += start;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Read a gzip file through the buffer, keeping the partial line at the
+     * front for the next read
+     */
+    private void readStream(String name) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(name), BUFSIZE);
+        int count;
+        int limit = 0;
+        int start;
+
+        try {
+            while (EOF == false && (count = in.read(input, limit, input.length - limit)) >= 0) {
+                limit += count;
+                start = putLines(inputBuffer, 0, limit);
+
+                if (start == 0 && limit == input.length) {
+                    start = limit;      // line too long, toss it out
+                }
+
+                System.arraycopy(input, start, input, 0, limit - start);
+                limit -= start;
+            }
+
+            if (EOF == false && limit > 0) {
+                putLine(inputBuffer, 0, limit);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Put the complete <CR><LF> lines into the ring, and return the buffer
+     * index of the partial line
+     */
+    private int putLines(ByteBuffer buffer, int start, int limit) {
+        int end;
+
+        for (int i = start; i < limit && EOF == false; i++) {
+            if (buffer.get(i) == '\n') {
+                end = i;
+
+                if ((end > start) && (buffer.get(end - 1) == '\r')) {
+                    end--;
+                }
+
+                putLine(buffer, start, end);
+                start = i + 1;
+            }
+        }
+
+        return start;
+    }
+
+    /*
+     * Put one line into the ring at its log time, or the time of the line
+     * before if it doesn't have one. The time never goes back, as the line
+     * would have been received after the one before.
+     */
+    private void putLine(ByteBuffer buffer, int start, int end) {
+        if (end <= start) {
+            return;
+        }
+
+        if (parser.parse(buffer, start, end)) {
+            try {
+                lastTime = Math.max(lastTime, parser.getTime(lastTime));
+            } catch (NumberFormatException e) {
+                // keep the last time
+            }
+        }
+
+        if (lastTime == 0L) {
+            return;     // nothing to put it at yet
+        }
+
+        clock.waitUntil(lastTime);
+        clock.start(lastTime);
+
+        if (ring.offer(buffer, start, end, lastTime)) {
+            lines++;
+        }
+    }
+}
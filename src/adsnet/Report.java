@@ -0,0 +1,132 @@
+package adsnet;
+
+import java.nio.ByteBuffer;
+
+/*
+ * One report from a feed, decoded from a LineRing slot, in terms of the
+ * Port 30003 (SBS-1) MSG types and fields, which SocketParse applies to the
+ * Track.
+ *
+ * A decoder object is reused for every report, and is only used by the
+ * SocketParse thread. Empty fields return the -9999 and -999.0 sentinels
+ * the Track class uses for null.
+ */
+public interface Report {
+
+    int TYPE = 1;
+    int HEXIDENT = 4;
+    int CALLSIGN = 10;
+    int ALTITUDE = 11;
+    int GSPEED = 12;
+    int GTRACK = 13;
+    int LATITUDE = 14;
+    int LONGITUDE = 15;
+    int VRATE = 16;
+    int SQUAWK = 17;
+    int ALERT = 18;
+    int EMERG = 19;
+    int SPI = 20;
+    int GROUND = 21;
+
+    /**
+     * Method to decode a report
+     *
+     * @param b a ByteBuffer containing the report
+     * @param start an int Representing the buffer index of the first byte
+     * @param end an int Representing the buffer index after the last byte
+     * @return a boolean which is true if there is a report to apply
+     */
+    boolean parse(ByteBuffer b, int start, int end);
+
+    /**
+     * Method to return the message type (1 - 8)
+     *
+     * @return an int Representing the MSG type, or -9999 if empty
+     */
+    int getType();
+
+    /**
+     * Method to return the 24-bit Mode-S address
+     *
+     * @return an int Representing the Mode-S address
+     * @throws NumberFormatException if there is no address
+     */
+    int getAddress();
+
+    /**
+     * Method to check if the address was sent in the clear. An address that
+     * was recovered from the parity can come from a damaged message, so it
+     * should only be used for a track that already exists.
+     *
+     * @return a boolean which is true if the address can start a new track
+     */
+    boolean isAddressVerified();
+
+    /**
+     * Method to finish decoding using the state kept in the track, such as
+     * the last CPR position
+     *
+     * @param trk a Track Representing the aircraft of the report
+     * @param now a long Representing the time the report was received
+     */
+    void resolve(Track trk, long now);
+
+    /**
+     * Method to return a hash of the report, which is the same for a copy of
+     * the report from another receiver
+     *
+     * @param icao an int Representing the Mode-S address
+     * @param type an int Representing the MSG type
+     * @return a long Representing the hash of the report
+     */
+    long getFingerprint(int icao, int type);
+
+    /**
+     * Method to return an integer field
+     *
+     * @param field an int Representing the field number
+     * @param empty an int Representing the value to return if empty
+     * @return an int Representing the field value
+     */
+    int getInt(int field, int empty);
+
+    /**
+     * Method to return a decimal fraction field
+     *
+     * @param field an int Representing the field number
+     * @param empty a float Representing the value to return if empty
+     * @return a float Representing the field value
+     */
+    float getFloat(int field, float empty);
+
+    /**
+     * Method to return a flag field
+     *
+     * @param field an int Representing the field number
+     * @return a boolean which is true if the flag is set
+     */
+    boolean getFlag(int field);
+
+    /**
+     * Method to return the on-ground flag
+     *
+     * @return a boolean Representing the OnGround status
+     */
+    boolean getOnGround();
+
+    /**
+     * Method to compare the callsign with a string without creating a new
+     * string
+     *
+     * @param val a string Representing the callsign to compare
+     * @return a boolean which is true if the callsign matches
+     */
+    boolean callsignEquals(String val);
+
+    /**
+     * Method to return the callsign as a string
+     *
+     * @return a string Representing the callsign, or an empty string
+     */
+    String getCallsign();
+}
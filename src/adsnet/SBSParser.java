@@ -0,0 +1,502 @@
+package adsnet;
+
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/*
+ * A parser for the Port 30003 (SBS-1) text format.
+ *
+ * The line is not copied or split into strings. The comma positions are
+ * recorded as field offsets into the receive buffer, and the numeric fields
+ * are converted straight from the bytes into primitives. Empty fields return
+ * the -9999 and -999.0 sentinels the Track class uses for null.
+ *
+ * A parser object is reused for every line, so it is not thread safe.
+ */
+public final class SBSParser implements Report {
+
+    private static final long FNVBASIS = 0xCBF29CE484222325L;     // FNV-1a 64-bit
+    private static final long FNVPRIME = 0x100000001B3L;
+    //
+    private static final int DATEGEN = 6;        // date message generated
+    private static final int TIMEGEN = 7;        // time message generated
+    private static final long DAYMILLIS = 24L * 60L * 60L * 1000L;
+    //
+    private static final int MAXFIELDS = 22;
+    private static final int MAXDIGITS = 18;
+    private static final double[] POW10 = {
+        1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8, 1E9,
+        1E10, 1E11, 1E12, 1E13, 1E14, 1E15, 1E16, 1E17, 1E18
+    };
+    //
+    private final int[] fieldStart;
+    private final int[] fieldEnd;
+    private ByteBuffer buf;
+    private int fields;
+    //
+    private final byte[] lastDate;      // date of dayStart
+    private long dayStart;
+
+    public SBSParser() {
+        fieldStart = new int[MAXFIELDS];
+        fieldEnd = new int[MAXFIELDS];
+        fields = 0;
+        lastDate = new byte[10];
+        dayStart = -1L;
+    }
+
+    /**
+     * Method to locate the fields of a MSG line
+     *
+     * @param b a ByteBuffer containing the line
+     * @param start an int Representing the buffer index of the first byte
+     * @param end an int Representing the buffer index after the last byte
+     * @return a boolean which is true if this is a MSG line
+     */
+    @Override
+    public boolean parse(ByteBuffer b, int start, int end) {
+        int i;
+
+        buf = b;
+        fields = 0;
+
+        if ((end - start) < 3 || b.get(start) != 'M' || b.get(start + 1) != 'S' || b.get(start + 2) != 'G') {
+            return false;
+        }
+
+        fieldStart[0] = start;
+
+        for (i = start; i < end && fields < MAXFIELDS; i++) {
+            if (b.get(i) == ',') {
+                fieldEnd[fields] = i;
+                fields++;
+
+                if (fields < MAXFIELDS) {
+                    fieldStart[fields] = i + 1;
+                }
+            }
+        }
+
+        if (fields < MAXFIELDS) {
+            fieldEnd[fields] = end;
+            fields++;
+        }
+
+        /*
+         * Trim the white space from both ends of each field
+         */
+        for (i = 0; i < fields; i++) {
+            while (fieldStart[i] < fieldEnd[i] && b.get(fieldStart[i]) <= ' ') {
+                fieldStart[i]++;
+            }
+
+            while (fieldEnd[i] > fieldStart[i] && b.get(fieldEnd[i] - 1) <= ' ') {
+                fieldEnd[i]--;
+            }
+        }
+
+        return fields > HEXIDENT;
+    }
+
+    /**
+     * Method to check if a field is empty or missing
+     *
+     * @param field an int Representing the field number
+     * @return a boolean which is true if the field has no data
+     */
+    public boolean isEmpty(int field) {
+        return (field >= fields) || (fieldStart[field] == fieldEnd[field]);
+    }
+
+    /**
+     * Method to return the message type (1 - 8)
+     *
+     * @return an int Representing the MSG type, or -9999 if empty
+     */
+    @Override
+    public int getType() {
+        return getInt(TYPE, -9999);
+    }
+
+    /**
+     * Method to return the 24-bit Mode-S address from the HEXIDENT field
+     *
+     * @return an int Representing the Mode-S address
+     * @throws NumberFormatException if the field is not hexadecimal
+     */
+    @Override
+    public int getAddress() {
+        int val = 0;
+        int c;
+
+        if (isEmpty(HEXIDENT) || (fieldEnd[HEXIDENT] - fieldStart[HEXIDENT]) > 6) {
+            throw new NumberFormatException("SBSParser: bad HEXIDENT");
+        }
+
+        for (int i = fieldStart[HEXIDENT]; i < fieldEnd[HEXIDENT]; i++) {
+            c = buf.get(i);
+
+            if (c >= '0' && c <= '9') {
+                c -= '0';
+            } else if (c >= 'A' && c <= 'F') {
+                c -= 'A' - 10;
+            } else if (c >= 'a' && c <= 'f') {
+                c -= 'a' - 10;
+            } else {
+                throw new NumberFormatException("SBSParser: bad HEXIDENT");
+            }
+
+            val = (val << 4) | c;
+        }
+
+        return val;
+    }
+
+    /**
+     * Method to check if the address was sent in the clear
+     *
+     * @return a boolean which is always true for a MSG line
+     */
+    @Override
+    public boolean isAddressVerified() {
+        return true;
+    }
+
+    /**
+     * Method to finish decoding, which the MSG lines don't need
+     *
+     * @param trk a Track Representing the aircraft of the report
+     * @param now a long Representing the time the report was received
+     */
+    @Override
+    public void resolve(Track trk, long now) {
+    }
+
+    /**
+     * Method to return a hash of the report in the line, which is the same
+     * for a copy of the report from another receiver. The session, aircraft
+     * and flight ID, and the date and time fields are not included, as they
+     * are made by the receiver.
+     *
+     * @param icao an int Representing the Mode-S address
+     * @param type an int Representing the MSG type
+     * @return a long Representing the FNV-1a hash of the report
+     */
+    @Override
+    public long getFingerprint(int icao, int type) {
+        long h = FNVBASIS;
+
+        h = (h ^ (icao & 0xFF)) * FNVPRIME;
+        h = (h ^ ((icao >>> 8) & 0xFF)) * FNVPRIME;
+        h = (h ^ ((icao >>> 16) & 0xFF)) * FNVPRIME;
+        h = (h ^ (type & 0xFF)) * FNVPRIME;
+
+        for (int field = CALLSIGN; field < fields; field++) {
+            for (int i = fieldStart[field]; i < fieldEnd[field]; i++) {
+                h = (h ^ (buf.get(i) & 0xFF)) * FNVPRIME;
+            }
+
+            h = (h ^ ',') * FNVPRIME;
+        }
+
+        return h;
+    }
+
+    /**
+     * Method to return the time the message was generated, from the UTC
+     * yyyy/MM/dd and HH:mm:ss.SSS fields. The start of the day is cached, so
+     * only the time is converted while the date stays the same.
+     *
+     * @param empty a long Representing the value to return if empty
+     * @return a long Representing the time in milliseconds
+     * @throws NumberFormatException if the fields are not a date and time
+     */
+    public long getTime(long empty) {
+        int d = fieldStart[DATEGEN];
+        int t = fieldStart[TIMEGEN];
+        int len = fieldEnd[TIMEGEN] - t;
+        long val;
+
+        if (isEmpty(DATEGEN) || isEmpty(TIMEGEN)) {
+            return empty;
+        }
+
+        if ((fieldEnd[DATEGEN] - d) != lastDate.length || len < 8
+                || buf.get(t + 2) != ':' || buf.get(t + 5) != ':') {
+            throw new NumberFormatException("SBSParser: bad date or time");
+        }
+
+        if (dateChanged(d)) {
+            if (buf.get(d + 4) != '/' || buf.get(d + 7) != '/') {
+                throw new NumberFormatException("SBSParser: bad date");
+            }
+
+            try {
+                dayStart = LocalDate.of(digits(d, 4), digits(d + 5, 2), digits(d + 8, 2)).toEpochDay() * DAYMILLIS;
+            } catch (DateTimeException e) {
+                throw new NumberFormatException("SBSParser: bad date");
+            }
+
+            for (int i = 0; i < lastDate.length; i++) {
+                lastDate[i] = buf.get(d + i);
+            }
+        }
+
+        val = (digits(t, 2) * 3600000L) + (digits(t + 3, 2) * 60000L) + (digits(t + 6, 2) * 1000L);
+
+        if (len > 9 && buf.get(t + 8) == '.') {
+            int ms = 0;
+            int scale = 100;
+
+            for (int i = t + 9; i < fieldEnd[TIMEGEN] && scale > 0; i++, scale /= 10) {
+                ms += (buf.get(i) - '0') * scale;
+            }
+
+            val += ms;
+        }
+
+        return dayStart + val;
+    }
+
+    /*
+     * Return true if the date field is not the cached date
+     */
+    private boolean dateChanged(int d) {
+        if (dayStart == -1L) {
+            return true;
+        }
+
+        for (int i = 0; i < lastDate.length; i++) {
+            if (lastDate[i] != buf.get(d + i)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Convert count decimal digits
+     */
+    private int digits(int i, int count) {
+        int val = 0;
+        int c;
+
+        for (int j = i; j < i + count; j++) {
+            c = buf.get(j) - '0';
+
+            if (c < 0 || c > 9) {
+                throw new NumberFormatException("SBSParser: bad date or time");
+            }
+
+            val = (val * 10) + c;
+        }
+
+        return val;
+    }
+
+    /**
+     * Method to convert a decimal integer field
+     *
+     * @param field an int Representing the field number
+     * @param empty an int Representing the value to return if empty
+     * @return an int Representing the field value
+     * @throws NumberFormatException if the field is not an integer
+     */
+    @Override
+    public int getInt(int field, int empty) {
+        int i;
+        int c;
+        int val = 0;
+        boolean negative = false;
+
+        if (isEmpty(field)) {
+            return empty;
+        }
+
+        i = fieldStart[field];
+
+        if (buf.get(i) == '-' || buf.get(i) == '+') {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+
+        if (i == fieldEnd[field]) {
+            throw new NumberFormatException("SBSParser: bad integer");
+        }
+
+        for (; i < fieldEnd[field]; i++) {
+            c = buf.get(i) - '0';
+
+            if (c < 0 || c > 9) {
+                throw new NumberFormatException("SBSParser: bad integer");
+            }
+
+            val = (val * 10) + c;
+        }
+
+        return negative ? -val : val;
+    }
+
+    /**
+     * Method to convert a decimal fraction field
+     *
+     * @param field an int Representing the field number
+     * @param empty a float Representing the value to return if empty
+     * @return a float Representing the field value
+     * @throws NumberFormatException if the field is not a number
+     */
+    @Override
+    public float getFloat(int field, float empty) {
+        int i;
+        int c;
+        int digits = 0;
+        int decimals = 0;
+        long mantissa = 0L;
+        boolean fraction = false;
+        boolean negative = false;
+        double val;
+
+        if (isEmpty(field)) {
+            return empty;
+        }
+
+        i = fieldStart[field];
+
+        if (buf.get(i) == '-' || buf.get(i) == '+') {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+
+        for (; i < fieldEnd[field]; i++) {
+            c = buf.get(i);
+
+            if (c == '.' && fraction == false) {
+                fraction = true;
+                continue;
+            }
+
+            c -= '0';
+
+            if (c < 0 || c > 9) {
+                throw new NumberFormatException("SBSParser: bad number");
+            }
+
+            if (digits < MAXDIGITS) {
+                mantissa = (mantissa * 10L) + c;
+                digits++;
+
+                if (fraction) {
+                    decimals++;
+                }
+            } else if (fraction == false) {
+                throw new NumberFormatException("SBSParser: number too large");
+            }
+        }
+
+        if (digits == 0) {
+            throw new NumberFormatException("SBSParser: bad number");
+        }
+
+        val = (double) mantissa / POW10[decimals];
+
+        return (float) (negative ? -val : val);
+    }
+
+    /**
+     * Method to convert a 0/-1 flag field into a boolean
+     *
+     * @param field an int Representing the field number
+     * @return a boolean which is true if the field is non-zero
+     */
+    @Override
+    public boolean getFlag(int field) {
+        return getInt(field, 0) != 0;
+    }
+
+    /**
+     * Method to return the on-ground flag, which is -1 when on the ground
+     *
+     * @return a boolean Representing the OnGround status
+     */
+    @Override
+    public boolean getOnGround() {
+        return getInt(GROUND, 0) == -1;
+    }
+
+    /**
+     * Method to compare the callsign field with a string without creating a
+     * new string. The @ symbol means null and is treated as a space.
+     *
+     * @param val a string Representing the callsign to compare
+     * @return a boolean which is true if the callsign matches
+     */
+    @Override
+    public boolean callsignEquals(String val) {
+        int start = callsignStart();
+        int end = callsignEnd(start);
+
+        if ((end - start) != val.length()) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (callsignChar(i) != val.charAt(i - start)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to return the callsign field as a string
+     *
+     * @return a string Representing the callsign, or an empty string
+     */
+    @Override
+    public String getCallsign() {
+        int start = callsignStart();
+        int end = callsignEnd(start);
+        char[] val = new char[end - start];
+
+        for (int i = start; i < end; i++) {
+            val[i - start] = callsignChar(i);
+        }
+
+        return new String(val);
+    }
+
+    private char callsignChar(int i) {
+        char c = (char) (buf.get(i) & 0xFF);
+
+        return (c == '@') ? ' ' : c;
+    }
+
+    private int callsignStart() {
+        int i;
+
+        if (isEmpty(CALLSIGN)) {
+            return 0;
+        }
+
+        for (i = fieldStart[CALLSIGN]; i < fieldEnd[CALLSIGN] && callsignChar(i) <= ' '; i++) {
+        }
+
+        return i;
+    }
+
+    private int callsignEnd(int start) {
+        int i;
+
+        if (isEmpty(CALLSIGN)) {
+            return 0;
+        }
+
+        for (i = fieldEnd[CALLSIGN]; i > start && callsignChar(i - 1) <= ' '; i--) {
+        }
+
+        return i;
+    }
+}
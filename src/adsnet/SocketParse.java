@@ -1,63 +1,61 @@
 package adsnet;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /*
- * This is a thread that reads the Port 30003 Format TCP data.
+ * This is a thread that decodes the Port 30003 Format or Beast binary TCP
+ * data.
  *
- * It Parses the socket data, with each line being terminated with a
- * <CR><LF> There are several command formats to decode.
+ * Each feed socket is read by its own FeedReader thread, which hands each
+ * <CR><LF> line or Beast frame to this thread through a LineRing. This thread parses the
+ * lines in place in the rings, and applies them to the one Track table, so
+ * reading and decoding run on separate cores, and a slow decode doesn't
+ * stall the sockets. The tracks from all the feeds are merged by address.
  *
- * We are only interested in the MSG 1-8 data, and toss out the rest.
+ * There are several command formats to decode. We are only interested in
+ * the MSG 1-8 data, and toss out the rest.
+ *
+ * When replay.files is set, a ReplayReader plays the recorded logs into one
+ * ring in place of the feeds, and the tracks are timed by the log.
  */
 public final class SocketParse extends Thread {
 
-    private static final int HEXIDENT = 4;
-    private static final int CALLSIGN = 10;
-    private static final int ALTITUDE = 11;
-    private static final int GSPEED = 12;
-    private static final int GTRACK = 13;
-    private static final int LATITUDE = 14;
-    private static final int LONGITUDE = 15;
-    private static final int VRATE = 16;
-    private static final int SQUAWK = 17;
-    private static final int ALERT = 18;
-    private static final int EMERG = 19;
-    private static final int SPI = 20;
-    private static final int GROUND = 21;
-    //
-    private static final long RATE1 = 30L * 1000L;              // 30 seconds
-    private static final long RATE2 = 5L * 1000L;               // 5 seconds
+    private static final long RATE1 = 1000L;                    // 1 second wheel tick
+    private static final int WHEELSIZE = 256;                   // 256 seconds
+    private static final int BURST = 64;                        // lines per feed turn
+    private static final int DEDUPSIZE = 4096;                  // report fingerprints
+    private static final long MAXSKEW = 5L * 1000L;             // 5 seconds
+    private static final int OFFSETSHIFT = 10;                  // offset creep, 1/1024
+    private static final long NOOFFSET = Long.MIN_VALUE;
     //
-    private Socket connection;
-    private BufferedReader line;
+    private final LineRing[] rings;
+    private final FeedReader[] readers;
+    private final int[] radars;                 // radar ID of each feed
+    private final Report[] reports;             // decoder of each feed
+    private final DedupCache dedup;             // null if not wanted
+    private final SBSParser parser;
+    private final FeedCapture capture;          // null if not wanted
+    private final ReplayReader replay;          // null if live
+    private final TimeSource clock;
+    private final boolean messageTime;          // time from the SBS line
+    private final long[] offsets;               // feed clock to wall clock
     //
     private final Thread socketReceive;
     //
-    private static boolean EOF;
     //
-    private final ConcurrentHashMap<String, Track> trackReports;
+    private final TrackStore trackReports;
+    private final ConcurrentLinkedQueue<Track> dirtyTracks;
     //
     private final Config config;
     //
-    private InputStream input;
     private final NConverter reg;
+    private final AircraftRegistry registry;
     //
-    private final Timer timer1;
-    private final Timer timer2;
-    //
-    private final TimerTask task1;
-    private final TimerTask task2;
+    private final TimingWheel wheel;
+    private final TimeSource.Ticker timer1;
     //
     private long callsignCount;
     private long surfaceCount;
@@ -74,6 +72,9 @@ public final class SocketParse extends Thread {
     private long altitudeMetric;
     private long airairMetric;
     private long squawkMetric;
+    private long dedupHitMetric;
+    private long dedupMissMetric;
+    private long positionRejectMetric;
 
     /*
      * Class constructor
@@ -81,55 +82,124 @@ public final class SocketParse extends Thread {
     public SocketParse(Config c) {
         config = c;
 
-        trackReports = new ConcurrentHashMap<>();
+        trackReports = new TrackStore(1024);
+        dirtyTracks = new ConcurrentLinkedQueue<>();
         reg = new NConverter();
+        registry = new AircraftRegistry(c.getRegistryAircraft(), c.getRegistryCountries());
+
+        List<Config.Feed> feeds = c.getFeeds();
+        String[] files = c.getReplayFiles();
+
+        if (files != null) {
+            feeds = new ArrayList<>();      // the log is the only feed
+            clock = TimeSource.replay(c.getReplaySpeed());
+        } else {
+            clock = TimeSource.wall();
+        }
+
+        rings = new LineRing[(files != null) ? 1 : feeds.size()];
+        readers = new FeedReader[feeds.size()];
+        radars = new int[rings.length];
+        reports = new Report[rings.length];
+        offsets = new long[rings.length];
+        Arrays.fill(offsets, NOOFFSET);
+
+        /*
+         * The decoders are only used by this thread, so the feeds of each
+         * format share one
+         */
+        parser = new SBSParser();
+        BeastDecoder decoder = new BeastDecoder(c.getHomeLat(), c.getHomeLon());
+
+        for (int i = 0; i < readers.length; i++) {
+            Config.Feed feed = feeds.get(i);
+
+            rings[i] = new LineRing(c.getPipelineSlots(), c.getPipelineWait());
+            readers[i] = new FeedReader(feed.getHost(), feed.getPort(), feed.isBeast(), rings[i]);
+            radars[i] = feed.getRadarID();
+            reports[i] = feed.isBeast() ? decoder : parser;
+        }
+
+        if (files != null) {
+            rings[0] = new LineRing(c.getPipelineSlots(), c.getPipelineWait());
+            radars[0] = c.getRadarID();
+            reports[0] = parser;
+            replay = new ReplayReader(files, rings[0], clock);
+        } else {
+            replay = null;
+        }
+
+        /*
+         * A replayed line is already queued at its message time
+         */
+        messageTime = c.isMessageTime() && replay == null;
+
+        if (c.getDedupWindow() > 0) {
+            dedup = new DedupCache(DEDUPSIZE, c.getDedupWindow());
+        } else {
+            dedup = null;
+        }
+
+        if (c.getCaptureDir() != null && replay == null) {
+            capture = new FeedCapture(c.getCaptureDir(), c.getCaptureSegment() * 60L * 1000L,
+                    c.getCaptureMaxAge() * 60L * 60L * 1000L, c.getCaptureMaxSize() * 1024L * 1024L);
+            capture.start();
+        } else {
+            capture = null;
+        }
 
-        openSBSSocket();
         resetCount();
 
+        wheel = new TimingWheel(WHEELSIZE, RATE1, new UpdateReports(), clock.now());
+        timer1 = clock.schedule(new WheelTick(), RATE1, RATE1, "WheelTick");
+        timer1.start();
+
         socketReceive = new Thread(this);
         socketReceive.setName("SocketParse");
         socketReceive.setPriority(Thread.NORM_PRIORITY + 1);
         socketReceive.start();
 
-        task1 = new UpdateReports();
-        timer1 = new Timer();
-        timer1.scheduleAtFixedRate(task1, 0L, RATE1);
-
-        task2 = new UpdateTrackQuality();
-        timer2 = new Timer();
-        timer2.scheduleAtFixedRate(task2, 10L, RATE2);
+        for (FeedReader reader : readers) {
+            reader.start();
+        }
     }
 
     /**
-     * A method to open a buffered socket connection to a TCP server
+     * Method to start playing the recorded logs, if replay.files is set. The
+     * threads that run on the clock must be created first, so the log doesn't
+     * run ahead of them.
      */
-    private void openSBSSocket() {
-        try {
-            connection = new Socket(config.getSocketHost(), config.getSocketPort());
-            input = connection.getInputStream();
-            line = new BufferedReader(new InputStreamReader(input));
-        } catch (IOException e) {
-            EOF = true;
+    public void startReplay() {
+        if (replay != null) {
+            replay.start();
         }
-
-        EOF = false;
     }
 
     /**
      * Method to close down the network TCP interface
      */
     public void close() {
-        EOF = true;
         timer1.cancel();
-        timer2.cancel();
 
-        try {
-            line.close();
-            input.close();
-            connection.close();
-        } catch (IOException e) {
-            System.err.println("SocketParse::close exception " + e.toString());
+        for (FeedReader reader : readers) {
+            reader.close();
+        }
+
+        if (replay != null) {
+            replay.close();
+        }
+
+        clock.close();
+
+        /*
+         * Give the decoder time to pass the last lines to the capture
+         */
+        if (capture != null) {
+            try {
+                socketReceive.join(5L * RATE1);
+            } catch (InterruptedException e) {
+                // Don't care
+            }
         }
     }
 
@@ -150,7 +220,24 @@ public final class SocketParse extends Thread {
                 = velocityMetric
                 = altitudeMetric
                 = airairMetric
-                = squawkMetric = 0L;
+                = squawkMetric
+                = dedupHitMetric
+                = dedupMissMetric
+                = positionRejectMetric = 0L;
+
+        for (LineRing ring : rings) {
+            ring.resetMetrics();
+        }
+    }
+
+    /**
+     * Method to return the clock the tracks are timed by
+     *
+     * @return a TimeSource Representing the wall clock, or the log time when
+     * replaying
+     */
+    public TimeSource getTimeSource() {
+        return clock;
     }
 
     public long getCallsignCount() {
@@ -209,518 +296,477 @@ public final class SocketParse extends Thread {
         return airairMetric;
     }
     
+    public long getDedupHitMetric() {
+        return dedupHitMetric;
+    }
+
+    public long getDedupMissMetric() {
+        return dedupMissMetric;
+    }
+
+    /**
+     * Method to return the positions held as implausible since the metrics
+     * were reset
+     *
+     * @return a long Representing the positions rejected
+     */
+    public long getPositionRejectMetric() {
+        return positionRejectMetric;
+    }
+
     public long getTrackMetric() {
-        synchronized (trackReports) {
-            return trackReports.size();
+        return trackReports.size();
+    }
+
+    /**
+     * Method to return the number of lines waiting to be decoded
+     *
+     * @return an int Representing the queue depth of all the feeds
+     */
+    public int getQueueDepth() {
+        int val = 0;
+
+        for (LineRing ring : rings) {
+            val += ring.getDepth();
         }
+
+        return val;
     }
 
-    /*
-     * This will look through the Track table and delete entries that
-     * are over X minutes old.  In that case the target has probably landed
-     * or faded-out from coverage.
+    /**
+     * Method to return the most lines waiting since the metrics were reset
+     *
+     * @return an int Representing the highest queue high water mark of the
+     * feeds
      */
-    private class UpdateReports extends TimerTask {
+    public int getQueueMetric() {
+        int val = 0;
 
-        @Override
-        public void run() {
-            long currentTime = System.currentTimeMillis();
-            long delta;
+        for (LineRing ring : rings) {
+            val = Math.max(val, ring.getHighWater());
+        }
 
-            for (Track id : getTrackTable()) {
-                // find the reports that haven't been updated in X minutes
-                delta = Math.abs(currentTime - id.getUpdateTime());
+        return val;
+    }
 
-                if (delta >= (config.getDatabaseTimeout() * 60L * 1000L)) {
-                    removeTrackReportsKey(id.getAircraftID());
-                }
-            }
+    /**
+     * Method to return the times a reader found its queue full since the
+     * metrics were reset
+     *
+     * @return a long Representing the queue full count of all the feeds
+     */
+    public long getQueueFullMetric() {
+        long val = 0L;
+
+        for (LineRing ring : rings) {
+            val += ring.getFullCount();
         }
+
+        return val;
+    }
+
+    /**
+     * Method to return the offline aircraft registry
+     *
+     * @return an AircraftRegistry Representing the registry
+     */
+    public AircraftRegistry getRegistry() {
+        return registry;
     }
 
     /*
-     * This will look through the Track local table and decrement track quality
-     * every 30 seconds that the lat/lon position isn't updated. This timer task
-     * is run every 5 seconds.
+     * Return the registration of an address. The US N-Number is computed,
+     * and the others are looked up in the registry.
      */
-    private class UpdateTrackQuality extends TimerTask {
+    private String registration(int icao) {
+        String val = reg.icao_to_n(icao);
+
+        if (val.equals("")) {
+            val = registry.getRegistration(registry.find(icao));
+        }
 
-        private long delta;
-        private long currentTime;
+        return val;
+    }
+
+    /*
+     * This is called from the timing wheel when a track deadline is due. The
+     * track is deleted if it is over X minutes old. In that case the target
+     * has probably landed or faded-out from coverage.
+     *
+     * The track quality decay is computed by the Track when it is read, so
+     * it doesn't keep a lost target alive here.
+     */
+    private class UpdateReports implements TimingWheel.Expiry {
 
         @Override
-        public void run() {
-            currentTime = System.currentTimeMillis();
-            delta = 0L;
-            String acid;
+        public long expire(Track id, long currentTime) {
+            long timeout = config.getDatabaseTimeout() * 60L * 1000L;
 
-            for (Track id : getTrackTable()) {
-                try {
+            // find the reports that haven't been updated in X minutes
+            if ((currentTime - id.getUpdateTime()) >= timeout) {
+                trackReports.remove(id);
+                return -1L;
+            }
 
-                    if ((id != (Track) null) && (id.getTrackQuality() > 0)) {
-                        acid = id.getAircraftID();
+            return Math.max(id.getUpdateTime() + timeout, currentTime + RATE1);
+        }
+    }
 
-                        // find the idStatus reports that haven't been position updated in 30 seconds
-                        delta = Math.abs(currentTime - id.getUpdatePositionTime());
+    /*
+     * Advance the timing wheel once a second
+     */
+    private class WheelTick implements Runnable {
 
-                        if (delta >= 30L * 1000L) {
-                            id.decrementTrackQuality();
-                            id.setUpdateTime(currentTime);
-                            putTrackReportsKeyedObject(acid, id);   // overwrite
-                        }
-                    }
-                } catch (NoSuchElementException e1) {
-                    System.err.println("SocketParse::updateTrackQuality Exception during iteration " + e1.toString());
-                }
-            }
+        @Override
+        public void run() {
+            wheel.tick(clock.now());
         }
     }
 
     /**
-     * Method to make a copy of the Track objects
+     * Method to put a modified Track on the dirty queue, if it isn't there
+     * already
      *
-     * @return a vector containing a copy of the Track objects
+     * @param id a track object Representing the modified Mode-S track
      */
-    private synchronized List<Track> getTrackTable() {
-        List<Track> result = new ArrayList<>();
-
-        result.addAll(trackReports.values());
+    private void markDirty(Track id) {
+        if (id.getUpdated() && id.setQueued()) {
+            dirtyTracks.offer(id);
+        }
+    }
 
-        return result;
+    /**
+     * Method to put back the Track objects from a scan that wasn't written,
+     * so the next scan tries them again
+     *
+     * @param table a List of the Track objects drained for the scan
+     */
+    public void requeueTracks(List<Track> table) {
+        for (Track id : table) {
+            markDirty(id);
+        }
     }
 
     /**
-     * Method to make a copy of all modified Track objects
+     * Method to drain the modified Track objects off the dirty queue
      *
-     * @return vector containing a copy of the modified Track objects
+     * <p>
+     * Only the tracks changed since the last call are visited. A track that
+     * changes again after it is drained goes back on the queue.
+     *
+     * @return vector containing the modified Track objects
      */
-    public synchronized List<Track> getTrackUpdatedTable() {
+    public List<Track> getTrackUpdatedTable() {
         List<Track> result = new ArrayList<>();
+        Track id;
 
-        trackReports.values().stream().filter((id) -> (id.getUpdated() == true)).forEachOrdered((id) -> {
+        while ((id = dirtyTracks.poll()) != null) {
+            id.clearQueued();
             result.add(id);
-        });
+        }
 
         return result;
     }
 
     /**
-     * Method to return the Track object of a specified Aircraft ID (ACID) or
-     * null if not found
+     * Thread to take the lines from the rings and apply them to the tracks
      *
-     * @param acid a string Representing the Mode-S code for the Track requested
-     * @return a track object Representing the Mode-S code requested or null if
-     * none found
+     * <p>
+     * The feeds are taken in turn, up to BURST lines each, so a busy feed
+     * can't hold up the others. A line is parsed in place in its ring slot,
+     * and the slot is given back to the reader when it is done. The thread
+     * ends when all the feeds have closed, and then closes the capture. At
+     * the end of a replay the clock carries on from the last line.
      */
-    private synchronized Track getTrackReportsKey(String acid) {
-        Track trk = (Track) null;
+    @Override
+    public void run() {
+        LineRing[] live = rings;
+        int[] liveRadars = radars;
+        Report[] liveReports = reports;
+        int[] liveFeeds = new int[rings.length];
+        boolean idle;
+        int count;
+        int slot;
+
+        for (int i = 0; i < liveFeeds.length; i++) {
+            liveFeeds[i] = i;
+        }
 
-        try {
-            trk = (Track) trackReports.get(acid);
-        } catch (NullPointerException e) {
-            System.err.println("SocketParse::getTrackReportsKey Exception during get " + e.toString());
+        while (live.length > 0) {
+            idle = true;
+
+            for (int i = 0; i < live.length; i++) {
+                for (count = 0; count < BURST && (slot = live[i].poll()) != -1; count++) {
+                    processLine(live[i], slot, liveRadars[i], liveReports[i], liveFeeds[i]);
+                    idle = false;
+                }
+            }
+
+            if (idle) {
+                count = 0;
+
+                for (LineRing ring : live) {
+                    if (ring.isDrained() == false) {
+                        count++;
+                    }
+                }
+
+                if (count < live.length) {
+                    LineRing[] open = new LineRing[count];
+                    int[] openRadars = new int[count];
+                    Report[] openReports = new Report[count];
+                    int[] openFeeds = new int[count];
+
+                    count = 0;
+
+                    for (int i = 0; i < live.length; i++) {
+                        if (live[i].isDrained() == false) {
+                            open[count] = live[i];
+                            openRadars[count] = liveRadars[i];
+                            openReports[count] = liveReports[i];
+                            openFeeds[count++] = liveFeeds[i];
+                        }
+                    }
+
+                    live = open;
+                    liveRadars = openRadars;
+                    liveReports = openReports;
+                    liveFeeds = openFeeds;
+                } else {
+                    LineRing.await(live);
+                }
+            }
         }
 
-        return trk;
+        if (capture != null) {
+            capture.close();
+        }
+
+        clock.finish();
     }
 
-    /**
-     * Method to put a Track object into the Track table
-     *
-     * @param acid a string Representing the Mode-S key into the table
-     * @param id a track object Representing the Mode-S track
+    /*
+     * Decode one line from a ring slot, and give the slot back
      */
-    private synchronized void putTrackReportsKeyedObject(String acid, Track id) {
+    private void processLine(LineRing ring, int slot, int radar, Report report, int feed) {
+        long time = ring.getTime(slot);
+
+        if (capture != null && report == parser) {
+            capture.offer(ring.getBuffer(), ring.getStart(slot), ring.getEnd(slot), time);
+        }
+
+        clock.advance(time);
+
         try {
-            trackReports.put(acid, id);
-        } catch (NullPointerException e) {
-            System.err.println("SocketParse::putTrackReportsKeyedObject Exception during put " + e.toString());
+            if (report.parse(ring.getBuffer(), ring.getStart(slot), ring.getEnd(slot))) {
+                if (messageTime && report == parser) {
+                    time = generatedTime(time, feed);
+                }
+
+                parseLine(report, time, radar);
+            }
+        } catch (NumberFormatException e) {
+            // toss out the bad line
+        } finally {
+            ring.release();
         }
     }
 
-    /**
-     * Method to remove a Track object from the Track table
+    /*
+     * Return the time the parsed SBS line was generated, on the wall clock,
+     * or the time it was received if it has no time.
      *
-     * @param acid a string Representing the Mode-S key into the table
+     * The feed clock may be out, or even in local time, and the track ages,
+     * wheel deadlines, and quality decay are all measured on the wall clock.
+     * So the generated time is moved by the offset of the feed clock, which
+     * is the least delay seen between generating and receiving a line. It
+     * creeps up slowly, in case the feed clock drifts, and is learned again
+     * if the line is more than MAXSKEW from it, when the feed clock has been
+     * set. The line times keep the spacing they were generated with, without
+     * the bunching of a buffered feed, and are never more than MAXSKEW from
+     * the wall clock.
      */
-    private synchronized void removeTrackReportsKey(String acid) {
+    private long generatedTime(long received, int feed) {
+        long val;
+        long delay;
+
         try {
-            trackReports.remove(acid);
-        } catch (NullPointerException e) {
-            System.err.println("SocketParse::removeTrackReportsKey Exception during remove " + e.toString());
+            val = parser.getTime(NOOFFSET);
+        } catch (NumberFormatException e) {
+            return received;
+        }
+
+        if (val == NOOFFSET) {
+            return received;
+        }
+
+        delay = received - val;
+
+        if (offsets[feed] == NOOFFSET || Math.abs(delay - offsets[feed]) > MAXSKEW) {
+            offsets[feed] = delay;
+        } else if (delay < offsets[feed]) {
+            offsets[feed] = delay;
+        } else {
+            offsets[feed] += (delay - offsets[feed]) >> OFFSETSHIFT;
+        }
+
+        return val + offsets[feed];
+    }
+
+    /*
+     * Set the track position from the report, and count it if it is held
+     * as implausible
+     */
+    private void setPosition(Track id, Report report, int radar, long currentTime) {
+        if (id.setPosition(report.getFloat(Report.LATITUDE, -999.0F),
+                report.getFloat(Report.LONGITUDE, -999.0F), radar, currentTime) == false) {
+            positionRejectMetric++;
         }
     }
 
     /**
-     * Thread to wait for socket data and push decoded objects onto track queue
+     * Method to apply a decoded report to the Track table
+     *
+     * <p>
+     * A field the report doesn't have leaves the track value as it was.
+     *
+     * @param report a Report Representing the decoded line or frame
+     * @param currentTime a long Representing the time of the line
+     * @param radar an int Representing the radar ID of the feed
      */
-    @Override
-    public void run() {
+    private void parseLine(Report report, long currentTime, int radar) {
         Track id;
-        long currentTime;
-        String acid;
-        String data;
-        String callsign;
-        String temp;
-        int altitude;
-        int verticalRate;
-        int squawk;
-        float groundSpeed;
-        float groundTrack;
-        float latitude;
-        float longitude;
-        boolean isOnGround;
-        boolean alert;
-        boolean emergency;
-        boolean spi;
-        String[] token;
-        int type, gnd;
-
-        while (EOF == false) {
-            try {
-                while (line.ready()) {
-                    data = line.readLine();
-                    currentTime = System.currentTimeMillis();
-
-                    if (data.startsWith("MSG")) {
-                        token = data.split(",", -2);   // Tokenize the data input line
-                        type = Integer.parseInt(token[1].trim());
-                        acid = token[HEXIDENT].trim();
-
-                        /*
-                         * See if this ACID is on the table already
-                         */
-                        if ((id = getTrackReportsKey(acid)) == (Track) null) {
-                            try {
-                                id = new Track();
-                            } catch (Exception e) {
-                                System.err.println("SocketParse::run exception: Unable to allocate a Track " + e.toString());
-                                break;
-                            }
-                        }
+        int icao;
+        int type;
 
-                        id.setAircraftID(acid);
-                        id.setRegistration(reg.icao_to_n(acid));
-
-                        switch (type) {
-                            case 8:
-                                temp = token[GROUND].trim();
-
-                                if (!temp.equals("")) {
-                                    gnd = Integer.parseInt(temp);
+        type = report.getType();
 
-                                    isOnGround = (gnd == -1);
-                                } else {
-                                    isOnGround = false;
-                                }
-
-                                id.setOnGround(isOnGround);
-                                break;
-                            case 1:
-                                callsignCount++;
-                                callsignMetric++;
-
-                                try {
-                                    callsign = token[CALLSIGN].replace('@', ' ').trim();  // This symbol @ means null
-                                } catch (Exception e) {
-                                    callsign = ""; // so replace with a null
-                                }
-
-                                id.setCallsign(callsign);
-                                break;
-                            case 2:
-                                surfaceCount++;
-                                surfaceMetric++;
-
-                                temp = token[ALTITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    altitude = Integer.parseInt(temp);
-                                } else {
-                                    altitude = -9999;
-                                }
-
-                                temp = token[GSPEED].trim();
-
-                                if (!temp.equals("")) {
-                                    groundSpeed = Float.parseFloat(temp);
-                                } else {
-                                    groundSpeed = -999.0F;
-                                }
-
-                                temp = token[GTRACK].trim();
-
-                                if (!temp.equals("")) {
-                                    groundTrack = Float.parseFloat(temp);
-                                } else {
-                                    groundTrack = -999.0F;
-                                }
-
-                                temp = token[LATITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    latitude = Float.parseFloat(temp);
-                                } else {
-                                    latitude = -999.0F;
-                                }
-
-                                temp = token[LONGITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    longitude = Float.parseFloat(temp);
-                                } else {
-                                    longitude = -999.0F;
-                                }
-
-                                temp = token[GROUND].trim();
-
-                                if (!temp.equals("")) {
-                                    gnd = Integer.parseInt(temp);
-
-                                    isOnGround = (gnd == -1);
-                                } else {
-                                    isOnGround = false;
-                                }
-
-                                id.setAltitude(altitude);
-                                id.setVelocityData(groundTrack, groundSpeed, 0);
-                                id.setPosition(latitude, longitude);
-                                id.setOnGround(isOnGround);
-                                break;
-                            case 3:
-                                airborneCount++;
-                                airborneMetric++;
-
-                                temp = token[ALTITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    altitude = Integer.parseInt(temp);
-                                } else {
-                                    altitude = -9999;
-                                }
-
-                                temp = token[LATITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    latitude = Float.parseFloat(temp);
-                                } else {
-                                    latitude = -999.0F;
-                                }
-
-                                temp = token[LONGITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    longitude = Float.parseFloat(temp);
-                                } else {
-                                    longitude = -999.0F;
-                                }
-
-                                temp = token[ALERT].trim();
-
-                                if (!temp.equals("")) {
-                                    alert = Integer.parseInt(temp) != 0;
-                                } else {
-                                    alert = false;
-                                }
-
-                                temp = token[EMERG].trim();
-
-                                if (!temp.equals("")) {
-                                    emergency = Integer.parseInt(temp) != 0;
-                                } else {
-                                    emergency = false;
-                                }
-
-                                temp = token[SPI].trim();
-
-                                if (!temp.equals("")) {
-                                    spi = Integer.parseInt(temp) != 0;
-                                } else {
-                                    spi = false;
-                                }
-
-                                temp = token[GROUND].trim();
-
-                                if (!temp.equals("")) {
-                                    gnd = Integer.parseInt(temp);
-
-                                    isOnGround = (gnd == -1);
-                                } else {
-                                    isOnGround = false;
-                                }
-
-                                id.setAltitude(altitude);
-                                id.setPosition(latitude, longitude);
-                                id.setOnGround(isOnGround);
-                                id.setAlert(alert, emergency, spi);
-                                break;
-                            case 4:
-                                velocityCount++;
-                                velocityMetric++;
-
-                                temp = token[GSPEED].trim();
-
-                                if (!temp.equals("")) {
-                                    groundSpeed = Float.parseFloat(temp);
-                                } else {
-                                    groundSpeed = -999.0F;
-                                }
-
-                                temp = token[GTRACK].trim();
-
-                                if (!temp.equals("")) {
-                                    groundTrack = Float.parseFloat(temp);
-                                } else {
-                                    groundTrack = -999.0F;
-                                }
-
-                                temp = token[VRATE].trim();
-
-                                if (!temp.equals("")) {
-                                    verticalRate = Integer.parseInt(temp);
-                                } else {
-                                    verticalRate = -9999;
-                                }
-
-                                id.setVelocityData(groundTrack, groundSpeed, verticalRate);
-                                break;
-                            case 5:
-                                altitudeCount++;
-                                altitudeMetric++;
-
-                                temp = token[ALTITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    altitude = Integer.parseInt(temp);
-                                } else {
-                                    altitude = -9999;
-                                }
-
-                                temp = token[ALERT].trim();
-
-                                if (!temp.equals("")) {
-                                    alert = Integer.parseInt(temp) != 0;
-                                } else {
-                                    alert = false;
-                                }
-
-                                temp = token[SPI].trim();
-
-                                if (!temp.equals("")) {
-                                    spi = Integer.parseInt(temp) != 0;
-                                } else {
-                                    spi = false;
-                                }
-
-                                temp = token[GROUND].trim();
-
-                                if (!temp.equals("")) {
-                                    gnd = Integer.parseInt(temp);
-                                    isOnGround = (gnd == -1);
-                                } else {
-                                    isOnGround = false;
-                                }
-
-                                id.setAlert(alert, false, spi);
-                                id.setOnGround(isOnGround);
-                                id.setAltitude(altitude);
-                                break;
-                            case 6:
-                                squawkCount++;
-                                squawkMetric++;
-
-                                temp = token[ALTITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    altitude = Integer.parseInt(temp);
-                                } else {
-                                    altitude = -9999;
-                                }
-
-                                temp = token[SQUAWK].trim();
-
-                                if (!temp.equals("")) {
-                                    squawk = Integer.parseInt(temp);
-                                } else {
-                                    squawk = -9999;
-                                }
-
-                                temp = token[ALERT].trim();
-
-                                if (!temp.equals("")) {
-                                    alert = Integer.parseInt(temp) != 0;
-                                } else {
-                                    alert = false;
-                                }
-
-                                temp = token[EMERG].trim();
-
-                                if (!temp.equals("")) {
-                                    emergency = Integer.parseInt(temp) != 0;
-                                } else {
-                                    emergency = false;
-                                }
-
-                                temp = token[SPI].trim();
-
-                                if (!temp.equals("")) {
-                                    spi = Integer.parseInt(temp) != 0;
-                                } else {
-                                    spi = false;
-                                }
-
-                                temp = token[GROUND].trim();
-
-                                if (!temp.equals("")) {
-                                    gnd = Integer.parseInt(temp);
-
-                                    isOnGround = (gnd == -1);
-                                } else {
-                                    isOnGround = false;
-                                }
-
-                                id.setAlert(alert, emergency, spi);
-                                id.setOnGround(isOnGround);
-                                id.setAltitude(altitude);
-                                id.setSquawk(squawk);
-                                break;
-                            case 7:
-                                airairCount++;
-                                airairMetric++;
-
-                                temp = token[ALTITUDE].trim();
-
-                                if (!temp.equals("")) {
-                                    altitude = Integer.parseInt(temp);
-                                } else {
-                                    altitude = -9999;
-                                }
-
-                                temp = token[GROUND].trim();
-
-                                if (!temp.equals("")) {
-                                    gnd = Integer.parseInt(temp);
-
-                                    isOnGround = (gnd == -1);
-                                } else {
-                                    isOnGround = false;
-                                }
-
-                                id.setOnGround(isOnGround);
-                                id.setAltitude(altitude);
-                        }
+        if (type < 1 || type > 8) {
+            return;
+        }
 
-                        id.setUpdateTime(currentTime);
-                        putTrackReportsKeyedObject(acid, id);
-                    }
-                }
+        icao = report.getAddress();
+
+        /*
+         * Drop the copies of a report that another receiver sent first
+         */
+        if (dedup != null) {
+            if (dedup.isDuplicate(report.getFingerprint(icao, type), currentTime)) {
+                dedupHitMetric++;
+                return;
+            }
 
-                try {
-                    Thread.sleep(0, 1);
-                } catch (InterruptedException e) {
+            dedupMissMetric++;
+        }
+
+        /*
+         * See if this ACID is on the table already. An address recovered
+         * from the parity may be from a damaged reply, so it can't start a
+         * track.
+         */
+        if ((id = trackReports.get(icao)) == (Track) null) {
+            if (report.isAddressVerified() == false) {
+                return;
+            }
+
+            try {
+                Track trk = new Track(icao);
+
+                trk.setRegistration(registration(icao));
+
+                if ((id = trackReports.putIfAbsent(trk)) == trk) {
+                    wheel.add(trk, currentTime + (config.getDatabaseTimeout() * 60L * 1000L));
                 }
-            } catch (IOException | NumberFormatException ex) {
+            } catch (Exception e) {
+                System.err.println("SocketParse::parseLine exception: Unable to allocate a Track " + e.toString());
+                return;
+            }
+        }
+
+        /*
+         * The database writer copies the track between updates
+         */
+        id.beginUpdate();
+
+        try {
+            report.resolve(id, currentTime);
+
+            switch (type) {
+                case 8:
+                    id.setOnGround(report.getOnGround());
+                    break;
+                case 1:
+                    callsignCount++;
+                    callsignMetric++;
+
+                    if (report.callsignEquals(id.getCallsign()) == false) {
+                        id.setCallsign(report.getCallsign());
+                    }
+                    break;
+                case 2:
+                    surfaceCount++;
+                    surfaceMetric++;
+
+                    /*
+                     * A surface target has no vertical rate
+                     */
+                    id.setAltitude(report.getInt(Report.ALTITUDE, id.getAltitude()));
+                    id.setVelocityData(report.getFloat(Report.GTRACK, id.getGroundTrack()),
+                            report.getFloat(Report.GSPEED, id.getGroundSpeed()), 0);
+                    setPosition(id, report, radar, currentTime);
+                    id.setOnGround(report.getOnGround());
+                    break;
+                case 3:
+                    airborneCount++;
+                    airborneMetric++;
+
+                    id.setAltitude(report.getInt(Report.ALTITUDE, id.getAltitude()));
+                    setPosition(id, report, radar, currentTime);
+                    id.setOnGround(report.getOnGround());
+                    id.setAlert(report.getFlag(Report.ALERT),
+                            report.getFlag(Report.EMERG),
+                            report.getFlag(Report.SPI));
+                    break;
+                case 4:
+                    velocityCount++;
+                    velocityMetric++;
+
+                    id.setVelocityData(report.getFloat(Report.GTRACK, id.getGroundTrack()),
+                            report.getFloat(Report.GSPEED, id.getGroundSpeed()),
+                            report.getInt(Report.VRATE, id.getVerticalRate()));
+                    break;
+                case 5:
+                    altitudeCount++;
+                    altitudeMetric++;
+
+                    id.setAlert(report.getFlag(Report.ALERT), false, report.getFlag(Report.SPI));
+                    id.setOnGround(report.getOnGround());
+                    id.setAltitude(report.getInt(Report.ALTITUDE, id.getAltitude()));
+                    break;
+                case 6:
+                    squawkCount++;
+                    squawkMetric++;
+
+                    id.setAlert(report.getFlag(Report.ALERT),
+                            report.getFlag(Report.EMERG),
+                            report.getFlag(Report.SPI));
+                    id.setOnGround(report.getOnGround());
+                    id.setAltitude(report.getInt(Report.ALTITUDE, id.getAltitude()));
+                    id.setSquawk(report.getInt(Report.SQUAWK, id.getSquawk()));
+                    break;
+                case 7:
+                    airairCount++;
+                    airairMetric++;
+
+                    id.setOnGround(report.getOnGround());
+                    id.setAltitude(report.getInt(Report.ALTITUDE, id.getAltitude()));
             }
+
+            id.setUpdateTime(currentTime);
+        } finally {
+            id.endUpdate();
         }
+
+        markDirty(id);
     }
 }
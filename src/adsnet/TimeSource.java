@@ -0,0 +1,336 @@
+package adsnet;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * The clock the track timeouts, radar scans, and fade-outs run on.
+ *
+ * Live, it is the wall clock. When a recorded log is replayed, it is the
+ * time of the log:
+ *
+ *   PACED  the log time runs at a multiple of the wall clock, from the time
+ *          of the first line, and the lines are sent when they are due
+ *   STEP   as fast as possible, the clock is moved to the time of each line
+ *          as it is decoded
+ *
+ * The threads that run on the clock are entered before the log starts, and
+ * wait in sleep(). In STEP mode the clock is not moved past the time a thread
+ * is waiting for, until the thread has woken and done its work, and is
+ * waiting again. So the database writer and
+ * the timeouts see the same tracks as they would live, however fast the log
+ * is read.
+ *
+ * When the replay ends, the clock carries on at the wall clock rate from
+ * the last time, so the tracks fade out as they would live.
+ */
+public final class TimeSource {
+
+    private enum Mode {
+        WALL, PACED, STEP
+    }
+    //
+    private static final long BUSY = -1L;       // sleeper is doing its work
+    //
+    private final Map<Thread, Long> sleepers;   // wake up time of each thread
+    private volatile Mode mode;
+    private volatile double speed;
+    private volatile long base;                 // log time at wallBase
+    private volatile long wallBase;
+    private volatile long current;              // log time (STEP)
+    private volatile boolean started;
+    private volatile boolean stopped;
+
+    /*
+     * One thread that runs a task on the clock, like a java.util.Timer
+     */
+    public final class Ticker extends Thread {
+
+        private final Runnable task;
+        private final long delay;
+        private final long period;
+        private volatile boolean cancelled;
+
+        private Ticker(Runnable t, long d, long p, String name) {
+            task = t;
+            delay = d;
+            period = p;
+            cancelled = false;
+
+            setName(name);
+        }
+
+        /**
+         * Method to stop running the task
+         */
+        public void cancel() {
+            cancelled = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                TimeSource.this.sleep(delay);
+
+                while (cancelled == false && stopped == false) {
+                    task.run();
+                    TimeSource.this.sleep(period);
+                }
+            } finally {
+                leave();
+            }
+        }
+    }
+
+    private TimeSource(Mode m, double s) {
+        sleepers = new IdentityHashMap<>();
+        mode = m;
+        speed = s;
+        base = wallBase = current = 0L;
+        started = (m == Mode.WALL);
+        stopped = false;
+    }
+
+    /**
+     * Method to make the wall clock
+     *
+     * @return a TimeSource Representing the wall clock
+     */
+    public static TimeSource wall() {
+        return new TimeSource(Mode.WALL, 1.0);
+    }
+
+    /**
+     * Method to make a replay clock, which starts when the first line is
+     * sent
+     *
+     * @param s a double Representing the replay speed as a multiple of real
+     * time, or 0 for as fast as possible
+     * @return a TimeSource Representing the replay clock
+     */
+    public static TimeSource replay(double s) {
+        if (s > 0.0) {
+            return new TimeSource(Mode.PACED, s);
+        }
+
+        return new TimeSource(Mode.STEP, 0.0);
+    }
+
+    /**
+     * Method to check if this is a replay clock
+     *
+     * @return a boolean which is true if the time comes from a log
+     */
+    public boolean isReplay() {
+        return mode != Mode.WALL;
+    }
+
+    /**
+     * Method to return the current time. A replay clock is at 0 until the
+     * first line is sent.
+     *
+     * @return a long Representing the time in milliseconds
+     */
+    public long now() {
+        switch (mode) {
+            case WALL:
+                return System.currentTimeMillis();
+            case STEP:
+                return current;
+            default:
+                return paced();
+        }
+    }
+
+    private synchronized long paced() {
+        if (started == false) {
+            return current;
+        }
+
+        return base + (long) ((System.currentTimeMillis() - wallBase) * speed);
+    }
+
+    /**
+     * Method to start the replay clock at the time of the first line
+     *
+     * @param time a long Representing the log time in milliseconds
+     */
+    public synchronized void start(long time) {
+        if (started) {
+            return;
+        }
+
+        base = current = time;
+        wallBase = System.currentTimeMillis();
+        started = true;
+        notifyAll();
+    }
+
+    /**
+     * Method for the replay reader to wait until a line is due. Only the
+     * PACED mode waits.
+     *
+     * @param time a long Representing the log time of the line
+     */
+    public void waitUntil(long time) {
+        long left;
+
+        if (mode != Mode.PACED) {
+            return;
+        }
+
+        start(time);
+
+        while (stopped == false && (left = time - now()) > 0L) {
+            try {
+                Thread.sleep(Math.max(1L, (long) (left / speed)));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method for the decoder to move the STEP clock to the time of a line.
+     * It waits for the threads that are due before then to do their work.
+     *
+     * @param time a long Representing the log time of the line
+     */
+    public void advance(long time) {
+        if (mode != Mode.STEP) {
+            return;
+        }
+
+        step(time);
+    }
+
+    private synchronized void step(long time) {
+        long next;
+        boolean busy;
+
+        start(time);
+
+        while (stopped == false && mode == Mode.STEP && time > current) {
+            next = time;
+            busy = false;
+
+            for (long wake : sleepers.values()) {
+                if (wake == BUSY) {
+                    busy = true;
+                } else if (wake < next) {
+                    next = wake;
+                }
+            }
+
+            if (busy == false) {
+                current = Math.max(current, next);
+                notifyAll();
+            }
+
+            if (busy || next < time) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to wait for a time on this clock
+     *
+     * @param ms a long Representing the time to wait in milliseconds
+     */
+    public synchronized void sleep(long ms) {
+        Thread self = Thread.currentThread();
+        long wake;
+        long left;
+
+        while (started == false && stopped == false) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+
+        wake = now() + ms;
+        sleepers.put(self, wake);
+        notifyAll();
+
+        try {
+            while (stopped == false && (left = wake - now()) > 0L) {
+                if (mode == Mode.STEP) {
+                    wait();
+                } else {
+                    wait(Math.max(1L, (long) (left / speed)));
+                }
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        } finally {
+            sleepers.put(self, BUSY);
+        }
+    }
+
+    /**
+     * Method to return a thread that runs a task every period on this clock,
+     * once it is started
+     *
+     * @param task a Runnable to run
+     * @param delay a long Representing the time to the first run
+     * @param period a long Representing the time between runs
+     * @param name a string Representing the thread name
+     * @return a Ticker Representing the thread
+     */
+    public Ticker schedule(Runnable task, long delay, long period, String name) {
+        Ticker t = new Ticker(task, delay, period, name);
+
+        enter(t);
+        return t;
+    }
+
+    /**
+     * Method to record that a thread runs on this clock. Until it first
+     * calls sleep(), the STEP clock waits for it.
+     *
+     * @param t a Thread Representing the thread, before it is started
+     */
+    public synchronized void enter(Thread t) {
+        sleepers.put(t, BUSY);
+    }
+
+    /**
+     * Method for a thread to record that it no longer runs on this clock
+     */
+    public synchronized void leave() {
+        sleepers.remove(Thread.currentThread());
+        notifyAll();
+    }
+
+    /**
+     * Method to call when the replay has ended. The clock carries on at the
+     * wall clock rate from the last time.
+     */
+    public synchronized void finish() {
+        if (mode == Mode.WALL) {
+            return;
+        }
+
+        base = now();
+        wallBase = System.currentTimeMillis();
+        speed = 1.0;
+        mode = Mode.PACED;
+        notifyAll();
+    }
+
+    /**
+     * Method to wake all the waiting threads for shut down
+     */
+    public synchronized void close() {
+        stopped = true;
+        notifyAll();
+    }
+}
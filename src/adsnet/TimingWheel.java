@@ -0,0 +1,105 @@
+package adsnet;
+
+/*
+ * A hashed timing wheel for the Track deadlines.
+ *
+ * Each track is on the wheel once, in the slot of its next deadline, using
+ * the next link in the Track itself, so no timer objects are made. A track
+ * is not moved when it is updated. When its slot comes around the Expiry
+ * callback looks at the track times, and either drops it, or gives the next
+ * deadline to re-arm it with. Only the tracks in the slots that are due are
+ * visited on a tick.
+ *
+ * A deadline further away than one turn of the wheel is just visited early,
+ * and re-armed with the same deadline.
+ */
+public final class TimingWheel {
+
+    /*
+     * The callback that is run when a track deadline comes due
+     */
+    public interface Expiry {
+
+        /**
+         * Method to check a track whose deadline is due
+         *
+         * @param trk a Track whose deadline is due
+         * @param now a long Representing the current time in milliseconds
+         * @return a long Representing the next deadline in milliseconds, which
+         * must be after now, or -1 to take the track off the wheel
+         */
+        long expire(Track trk, long now);
+    }
+    //
+    private final Track[] slots;
+    private final int mask;
+    private final long resolution;
+    private final Expiry expiry;
+    private long current;           // next tick to be processed
+
+    /**
+     * Class constructor
+     *
+     * @param size an int Representing the number of slots (power of two)
+     * @param res a long Representing the tick length in milliseconds
+     * @param exp an Expiry to call when a deadline is due
+     * @param now a long Representing the current time in milliseconds
+     */
+    public TimingWheel(int size, long res, Expiry exp, long now) {
+        slots = new Track[size];
+        mask = size - 1;
+        resolution = res;
+        expiry = exp;
+        current = now / res;
+    }
+
+    /**
+     * Method to put a track on the wheel
+     *
+     * @param trk a Track to add
+     * @param deadline a long Representing the deadline in milliseconds
+     */
+    public synchronized void add(Track trk, long deadline) {
+        int idx = (int) (Math.max(deadline / resolution, current) & mask);
+
+        trk.setWheelNext(slots[idx]);
+        slots[idx] = trk;
+    }
+
+    /**
+     * Method to advance the wheel to the current time, and run the callback
+     * for each track in the slots passed over
+     *
+     * @param now a long Representing the current time in milliseconds
+     */
+    public synchronized void tick(long now) {
+        long target = now / resolution;
+        long deadline;
+        Track trk;
+        Track next;
+        int idx;
+
+        if ((target - current) >= slots.length) {
+            current = target - slots.length + 1;    // one turn visits them all
+        }
+
+        while (current <= target) {
+            idx = (int) (current++ & mask);
+            trk = slots[idx];
+            slots[idx] = null;
+
+            while (trk != null) {
+                next = trk.getWheelNext();
+                trk.setWheelNext(null);
+
+                deadline = expiry.expire(trk, now);
+
+                if (deadline >= 0L) {
+                    add(trk, deadline);
+                }
+
+                trk = next;
+            }
+        }
+    }
+}
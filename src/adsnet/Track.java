@@ -1,17 +1,60 @@
 package adsnet;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /*
  * This is the vehicle track object
+ *
+ * Only the SocketParse thread changes the track values, between
+ * beginUpdate() and endUpdate(), which make the sequence number odd while it
+ * is being changed. The database writer copies it with capture(), which
+ * tries again if the sequence number was odd, or changed while it copied.
+ * So the writer never waits on a lock, and the decoder never waits at all.
+ *
+ * The updated flags are counts of the changes. A capture records the counts
+ * it saw in the copy, and the flags are only cleared to those counts once
+ * the rows are committed, so a change made just after, or a scan that is
+ * rolled back, is not lost. The sent counts are the one thing the database
+ * writer changes, with sent(), and they are volatile so the decoder sees
+ * the commit.
+ *
+ * A wide area feed can hold tens of thousands of tracks, so a track is kept
+ * small. The Aircraft ID is made from the address when it is asked for, the
+ * status bits are packed in one int, the vertical rate trend is two bit
+ * masks, and the callsigns are interned, so the tracks share one copy of
+ * each. The hijack, comm out, and virtual onground bits follow from the
+ * squawk and altitude, so they aren't stored at all.
  */
 public final class Track {
 
-    private String acid;            // Aircraft ID
+    private static final AtomicIntegerFieldUpdater<Track> QUEUED
+            = AtomicIntegerFieldUpdater.newUpdater(Track.class, "queued");
+    private static final AtomicIntegerFieldUpdater<Track> SEQ
+            = AtomicIntegerFieldUpdater.newUpdater(Track.class, "seq");
+    //
+    private static final long QUALITYTIME = 30L * 1000L;    // 30 seconds
+    private static final long QUALITYRATE = 5L * 1000L;     // 5 seconds
+    private static final double MAXSPEED = 1000.0 / 3600000.0;  // 1000 knots in nm/ms
+    private static final double MAXJUMP = 1.0;              // nm of position noise
+    private static final int TRENDS = 10;                   // vertical rates in the trend
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    //
+    static final int ALERT = 0x01;          // octal code changed bit
+    static final int EMERGENCY = 0x02;      // emergency bit
+    static final int SPI = 0x04;            // ident bit
+    static final int ONGROUND = 0x08;       // aircraft squat switch activated
+    static final int HADALERT = 0x10;
+    static final int HADEMERGENCY = 0x20;
+    static final int HADSPI = 0x40;
+    //
+    private final int address;      // Mode-S 24-bit address
     private String registration;    // N-Number if USA registered
-    private int trackQuality;       // 0 - 9 quality value (9 means Best)
+    private int trackQuality;       // 0 - 9 quality value at the last position
     private int verticalRate;       // fps
     private int verticalTrend;      // -1 = down, 0 = level, 1 = up
-    private final int[] trend = new int[10];
-    private static int trend_el = 0;
+    private int trendUp;            // bit mask of the climbing rates
+    private int trendDown;          // bit mask of the descending rates
+    private int trend_el;           // next trend entry of this track
     private float groundSpeed;      // kts
     private float groundTrack;      // deg
     private float groundSpeedComputed;
@@ -21,28 +64,28 @@ public final class Track {
     private int altitude;           // aircraft current altitude in feet
     private String callsign;        // 8 character string
     private int squawk;             // 4 digit octal code
-    //
-    private boolean alert;          // octal code changed bit
-    private boolean emergency;      // emergency bit
-    private boolean spi;            // ident bit
-    private boolean isOnGround;     // aircraft squat switch activated
-    private boolean isVirtOnGround; // Virtual onGround for MMS2
-    private boolean hijack;
-    private boolean comm_out;
-    //
-    private boolean hadAlert;
-    private boolean hadEmergency;
-    private boolean hadSPI;
+    private int flags;              // ALERT, EMERGENCY, ... bits
     //
     private long updateTime;        // zulu time object was updated
     private long updatePositionTime;// zulu time object lat/lon position was updated
-    private boolean updated;        // set on update, cleared on sent
-    private boolean updatePosition;
-
-    public Track() {
+    private int positionRadarID;    // radar ID of the feed the position came from
+    private int changes;            // count of the updates
+    private int moves;              // count of the position updates
+    private volatile int sentChanges;   // counts at the last commit
+    private volatile int sentMoves;
+    private volatile int seq;       // odd while being updated
+    private volatile int queued;    // 1 if on the dirty queue
+    private Track wheelNext;        // next track in the timing wheel slot
+    private CPR cpr;                // CPR position state, for binary feeds
+    private MotionFilter motion;    // made at the first position
+    private float suspectLatitude;  // position held until it is confirmed
+    private float suspectLongitude;
+    private long suspectTime;       // 0 if none held
+
+    public Track(int val) {
         updateTime = System.currentTimeMillis();
         //
-        acid = "";
+        address = val;
         registration = "";
         callsign = "";
         //
@@ -58,84 +101,206 @@ public final class Track {
         //
         trackQuality = 0;           // aircraft with positions
         updatePositionTime = 0L;    // time position updated
+        positionRadarID = 0;
         //
-        alert = false;
-        emergency = false;
-        spi = false;
-        hadAlert = false;
-        hadEmergency = false;
-        hadSPI = false;
-        hijack = false;
-        comm_out = false;
-        updated = false;
-        updatePosition = false;
-        isOnGround = false;
-        isVirtOnGround = false;
+        flags = 0;
+        trendUp = trendDown = 0;
+        changes = moves = 0;
+        sentChanges = sentMoves = 0;
+        seq = 0;
     }
 
     /**
      * Method to increment track with position quality
+     *
+     * @param now a long Representing the time of the new position
      */
-    public void incrementTrackQuality() {
-        if (trackQuality < 9) {
-            trackQuality++;
-            updated = true;
+    public void incrementTrackQuality(long now) {
+        int val = getTrackQuality(now);
+
+        if (val < 9) {
+            val++;
         }
-    }
 
-    /**
-     * Method to decrement track with position quality
-     */
-    public void decrementTrackQuality() {
-        if (trackQuality > 0) {
-            trackQuality--;
-            updated = true;
+        if (val != trackQuality) {
+            trackQuality = val;
+            changes++;
         }
     }
 
     /**
-     * Method to return track quality
+     * Method to return track quality at a given time
      *
+     * <p>
+     * The quality is not decremented by a timer. It is computed from the age
+     * of the position, losing one every 5 seconds once the lat/lon position
+     * hasn't been updated for 30 seconds. So the decay is not a track update.
+     *
+     * @param now a long Representing the time in milliseconds
      * @return an integer representing the track quality [0...9]
      */
-    public int getTrackQuality() {
-        return trackQuality;
+    public int getTrackQuality(long now) {
+        return quality(trackQuality, updatePositionTime, now);
+    }
+
+    /*
+     * Return the quality decayed from the quality at the last position
+     */
+    static int quality(int val, long positionTime, long now) {
+        long age = now - positionTime;
+
+        if ((val == 0) || (age < QUALITYTIME)) {
+            return val;
+        }
+
+        return (int) Math.max(0L, val - 1L - ((age - QUALITYTIME) / QUALITYRATE));
     }
 
     /**
-     * Method to check if the track has been updated
+     * Method to check if the track has been updated since it was last
+     * written. The SocketParse thread calls this after it changes the track,
+     * and the database writer when it puts back the tracks of a scan that
+     * was rolled back.
      *
      * @return boolean which signals if the track has been updated
      */
     public boolean getUpdated() {
-        return updated;
+        return changes != sentChanges;
+    }
+
+    /**
+     * Method for the SocketParse thread to call before it changes the track
+     */
+    public void beginUpdate() {
+        SEQ.incrementAndGet(this);      // the changes can't be moved before it
+    }
+
+    /**
+     * Method for the SocketParse thread to call after it has changed the
+     * track
+     */
+    public void endUpdate() {
+        seq++;
+    }
+
+    /**
+     * Method for the database writer to copy the track. The updated flags
+     * in the copy are for the changes since it was last written, and stay
+     * set until the copy is marked sent.
+     *
+     * @param snap a TrackSnapshot to fill in
+     */
+    public void capture(TrackSnapshot snap) {
+        String id = snap.acid;
+        int s;
+        int c;
+        int m;
+
+        for (;;) {
+            s = seq;
+
+            if ((s & 1) != 0) {
+                Thread.yield();     // being updated
+                continue;
+            }
+
+            snap.registration = registration;
+            snap.callsign = callsign;
+            snap.altitude = altitude;
+            snap.groundSpeed = groundSpeed;
+            snap.groundTrack = groundTrack;
+            snap.groundSpeedComputed = groundSpeedComputed;
+            snap.groundTrackComputed = groundTrackComputed;
+            snap.latitude = latitude;
+            snap.longitude = longitude;
+            snap.verticalRate = verticalRate;
+            snap.verticalTrend = verticalTrend;
+            snap.trackQuality = trackQuality;
+            snap.squawk = squawk;
+            snap.updateTime = updateTime;
+            snap.updatePositionTime = updatePositionTime;
+            snap.positionRadarID = positionRadarID;
+            snap.flags = flags;
+            c = changes;
+            m = moves;
+
+            /*
+             * The compare and set is a write, so the reads above can't be
+             * moved after it, and it fails if an update has started since
+             */
+            if (SEQ.compareAndSet(this, s, s)) {
+                break;
+            }
+        }
+
+        /*
+         * A pooled snapshot keeps the Aircraft ID string while it is used
+         * for the same track
+         */
+        if (id == null || snap.address != address) {
+            snap.address = address;
+            snap.acid = hexID(address);
+        }
+
+        snap.changes = c;
+        snap.moves = m;
+        snap.updated = (c != sentChanges);
+        snap.updatePosition = (m != sentMoves);
+    }
+
+    /**
+     * Method for the database writer to call once the rows from a copy are
+     * committed, so the changes in it aren't written again
+     *
+     * @param snap a TrackSnapshot Representing the copy written
+     */
+    public void sent(TrackSnapshot snap) {
+        sentChanges = snap.changes;
+        sentMoves = snap.moves;
+    }
+
+    /**
+     * Method to mark the track as being on the dirty queue
+     *
+     * @return a boolean which is true if the track was not already queued
+     */
+    public boolean setQueued() {
+        return QUEUED.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Method to mark the track as taken off the dirty queue. This is done
+     * before the track is read, so a change made after it is queued again.
+     */
+    public void clearQueued() {
+        queued = 0;
     }
 
     /**
-     * Method to flag a track as being updated
+     * Method to return the next track in the same timing wheel slot
      *
-     * @param val a boolean which signals the track has been updated
+     * @return a Track Representing the next track in the slot, or null
      */
-    public void setUpdated(boolean val) {
-        updated = val;
+    public Track getWheelNext() {
+        return wheelNext;
     }
 
     /**
-     * Method to check if the track position has been updated
+     * Method to set the next track in the same timing wheel slot
      *
-     * @return boolean which signals if the track position has been updated
+     * @param val a Track Representing the next track in the slot, or null
      */
-    public boolean getUpdatePosition() {
-        return updatePosition;
+    public void setWheelNext(Track val) {
+        wheelNext = val;
     }
 
     /**
-     * Method to flag a track position as being updated or not updated
+     * Method to return the Aircraft Mode-S address
      *
-     * @param val a boolean to set or reset the track position updated status
+     * @return an int Representing the track Mode-S address
      */
-    public void setUpdatePosition(boolean val) {
-        updatePosition = val;
+    public int getAircraftAddress() {
+        return address;
     }
 
     /**
@@ -144,16 +309,21 @@ public final class Track {
      * @return a string Representing the track Mode-S Hex ID
      */
     public String getAircraftID() {
-        return acid;
+        return hexID(address);
     }
 
-    /**
-     * Method to set the Aircraft Mode-S Hex ID
-     *
-     * @param val a string Representing the track Mode-S Hex ID
+    /*
+     * Return the 6 digit hex Aircraft ID of an address
      */
-    public void setAircraftID(String val) {
-        acid = val;
+    static String hexID(int val) {
+        char[] id = new char[6];
+
+        for (int i = 5; i >= 0; i--) {
+            id[i] = HEX[val & 0xF];
+            val >>>= 4;
+        }
+
+        return new String(id);
     }
 
     /**
@@ -221,24 +391,31 @@ public final class Track {
     public void setVerticalRate(int val) {
         if (verticalRate != val) {
             verticalRate = val;
-            updated = true;
+            changes++;
         }
-        
-        int vt = 0;
+
+        addTrend(val);
+    }
+
+    /*
+     * Add a vertical rate to the trend of the last 10 rates
+     */
+    private void addTrend(int val) {
+        int bit = 1 << trend_el;
+        int vt;
+
+        trendUp &= ~bit;
+        trendDown &= ~bit;
 
         if (val > 192) {
-            trend[trend_el] = 1;
+            trendUp |= bit;
         } else if (val < -192) {
-            trend[trend_el] = -1;
-        } else {
-            trend[trend_el] = 0;
+            trendDown |= bit;
         }
 
-        trend_el = (trend_el + 1) % 10;
+        trend_el = (trend_el + 1) % TRENDS;
 
-        for (int i = 0; i < 10; i++) {
-            vt += trend[i];
-        }
+        vt = Integer.bitCount(trendUp) - Integer.bitCount(trendDown);
 
         if (vt > 0) {
             verticalTrend = 1;
@@ -249,7 +426,7 @@ public final class Track {
         }
     }
 
-    public synchronized int getVerticalTrend() {
+    public int getVerticalTrend() {
         return verticalTrend;
     }
     
@@ -272,29 +449,48 @@ public final class Track {
     }
 
     /**
-     * Method used to return the target computed ground speed in knots
+     * Method used to return the target ground speed in knots, computed from
+     * the position history
      *
-     * @return target groundspeed in knots
+     * @return target groundspeed in knots, or -999.0 if not known yet
      */
     public float getComputedGroundSpeed() {
         return groundSpeedComputed;
     }
 
     /**
-     * Method used to return the target computed ground track in degrees true north.
+     * Method used to return the target ground track in degrees true north,
+     * computed from the position history
      *
-     * @return target ground track in degrees true north
+     * @return target ground track in degrees true north, or -999.0 if not
+     * known yet
      */
     public float getComputedGroundTrack() {
         return groundTrackComputed;
     }
 
-    public void setComputedGroundSpeed(float val) {
-        groundSpeedComputed = val;
-    }
+    /*
+     * Run the position through the motion filter, and update the computed
+     * speed and track. The trend is kept from the altitude history, when the
+     * target doesn't send its vertical rate.
+     */
+    private void filterPosition(float lat, float lon, long now) {
+        if (motion == null) {
+            motion = new MotionFilter();
+        }
+
+        if (motion.update(lat, lon, altitude, now) == false) {
+            return;
+        }
+
+        if (motion.isValid()) {
+            groundSpeedComputed = motion.getGroundSpeed();
+            groundTrackComputed = motion.getGroundTrack();
+        }
 
-    public void setComputedGroundTrack(float val) {
-        groundTrackComputed = val;
+        if (verticalRate == -9999 && motion.isVerticalValid()) {
+            addTrend(motion.getVerticalRate());
+        }
     }
 
     /**
@@ -328,21 +524,21 @@ public final class Track {
         }
 
         if (changed) {
-            updated = true;
+            changes++;
         }
     }
 
     /**
-     * Method used to set the target altitude in feet MSL (29.92) The virtual
-     * onground status is also set if altitude reads 0 feet.
+     * Method used to set the target altitude in feet MSL (29.92). The virtual
+     * onground status is not stored, getVirtualOnGround() reads it from an
+     * altitude of 0 feet.
      *
      * @param val an integer Representing altitude in feet MSL or -9999 for null
      */
     public void setAltitude(int val) {
         if (altitude != val) {
             altitude = val;
-            isVirtOnGround = (val == 0);
-            updated = true;
+            changes++;
         }
     }
 
@@ -373,23 +569,80 @@ public final class Track {
         return longitude;
     }
 
+    /**
+     * Method to return the radar ID of the feed the position came from
+     *
+     * @return an int Representing the radar ID
+     */
+    public int getPositionRadarID() {
+        return positionRadarID;
+    }
+
+    /*
+     * Return true if a target could have moved between two positions in the
+     * time between them. The distance is the flat earth approximation, which
+     * is close to the haversine distance over the few miles that matter.
+     */
+    private static boolean plausible(float lat1, float lon1, long time1, float lat2, float lon2, long time2) {
+        double dlat = lat2 - lat1;
+        double dlon = lon2 - lon1;
+        double limit = (Math.abs(time2 - time1) * MAXSPEED) + MAXJUMP;
+
+        if (dlon >= 180.0) {
+            dlon -= 360.0;
+        } else if (dlon < -180.0) {
+            dlon += 360.0;
+        }
+
+        dlon *= Math.cos(Math.toRadians((lat1 + lat2) / 2.0));
+
+        return (((dlat * dlat) + (dlon * dlon)) * 3600.0) <= (limit * limit);
+    }
+
     /**
      * Method used to set the target 2D position (latitude, longitude) (south
      * and west are negative)
      *
+     * <p>
+     * A position further from the last one than the target could have flown
+     * is held, and not used. If the next position agrees with the held one,
+     * rather than the last one, the target really has moved, and the track
+     * follows it.
+     *
      * @param val1 a float Representing the target latitude
      * @param val2 a float Representing the target longitude
+     * @param radar an int Representing the radar ID of the feed
+     * @param now a long Representing the time of the position
+     * @return a boolean which is false if the position was held as
+     * implausible
      */
-    public void setPosition(float val1, float val2) {
+    public boolean setPosition(float val1, float val2, int radar, long now) {
         boolean changed = false;
 
         /*
-         * Ignore the 0 Lat/ 0 Lon garbage
+         * Ignore the 0 Lat/ 0 Lon garbage, and a report without a position
          */
-        if (val1 == 0.0F && val2 == 0.0F) {
-            return;
+        if ((val1 == 0.0F && val2 == 0.0F) || val1 == -999.0F || val2 == -999.0F) {
+            return true;
         }
 
+        if (updatePositionTime != 0L
+                && plausible(latitude, longitude, updatePositionTime, val1, val2, now) == false) {
+            if (suspectTime == 0L
+                    || plausible(suspectLatitude, suspectLongitude, suspectTime, val1, val2, now) == false) {
+                suspectLatitude = val1;
+                suspectLongitude = val2;
+                suspectTime = now;
+                return false;
+            }
+
+            if (motion != null) {
+                motion.reset();     // confirmed, so the track jumps
+            }
+        }
+
+        suspectTime = 0L;
+
         if (latitude != val1) {
             latitude = val1;
             changed = true;
@@ -401,10 +654,29 @@ public final class Track {
         }
 
         if (changed) {
-            incrementTrackQuality();
-            updated = updatePosition = true;
-            updatePositionTime = System.currentTimeMillis();
+            filterPosition(val1, val2, now);
+            incrementTrackQuality(now);
+            changes++;
+            moves++;
+            updatePositionTime = now;
+            positionRadarID = radar;
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to return the CPR position decoding state, which is only made
+     * for an aircraft seen on a binary feed
+     *
+     * @return a CPR Representing the position decoding state
+     */
+    public CPR getCPR() {
+        if (cpr == null) {
+            cpr = new CPR();
         }
+
+        return cpr;
     }
 
     /**
@@ -421,10 +693,10 @@ public final class Track {
      *
      * @param val a string Representing the target callsign
      */
-    public synchronized void setCallsign(String val) {
+    public void setCallsign(String val) {
         if (!val.equals(callsign)) {
-            callsign = val;
-            updated = true;
+            callsign = val.intern();    // one copy for all the tracks
+            changes++;
         }
     }
 
@@ -445,9 +717,7 @@ public final class Track {
     public void setSquawk(int val) {
         if (squawk != val) {
             squawk = val;
-            updated = true;
-            hijack = val == 7500;
-            comm_out = val == 7600;
+            changes++;
         }
     }
 
@@ -457,7 +727,7 @@ public final class Track {
      * @return a boolean Representing the Emergency status
      */
     public boolean getEmergency() {
-        return emergency;
+        return (flags & EMERGENCY) != 0;
     }
 
     /**
@@ -466,7 +736,7 @@ public final class Track {
      * @return a boolean Representing the SPI status
      */
     public boolean getSPI() {
-        return spi;
+        return (flags & SPI) != 0;
     }
 
     /**
@@ -475,15 +745,21 @@ public final class Track {
      * @return a boolean Representing the Hijack status
      */
     public boolean getHijack() {
-        return hijack;
+        return squawk == 7500;
     }
 
     public boolean getCommOut() {
-        return comm_out;
+        return squawk == 7600;
     }
 
+    /**
+     * Method used to return the virtual OnGround status, which is set when
+     * the altitude reads 0 feet
+     *
+     * @return a boolean Representing the virtual OnGround status
+     */
     public boolean getVirtualOnGround() {
-        return isVirtOnGround;
+        return altitude == 0;
     }
 
     /**
@@ -492,7 +768,7 @@ public final class Track {
      * @return a boolean Representing the OnGround status
      */
     public boolean getOnGround() {
-        return isOnGround;
+        return (flags & ONGROUND) != 0;
     }
 
     /**
@@ -501,9 +777,9 @@ public final class Track {
      * @param val a boolean Representing the OnGround status
      */
     public void setOnGround(boolean val) {
-        if (isOnGround != val) {
-            isOnGround = val;
-            updated = true;
+        if (getOnGround() != val) {
+            flags ^= ONGROUND;
+            changes++;
         }
     }
 
@@ -514,7 +790,7 @@ public final class Track {
      * @return a boolean Representing the Alert status
      */
     public boolean getAlert() {
-        return alert;
+        return (flags & ALERT) != 0;
     }
 
     /**
@@ -530,52 +806,35 @@ public final class Track {
      * @param val3 a boolean Representing the status of the SPI
      */
     public void setAlert(boolean val1, boolean val2, boolean val3) {
-        boolean changed = false;
-
-        if (alert != val1) {
-            alert = val1;
-
-            if (alert == true) {
-                hadAlert = true;
-            }
+        int val = flags & ~(ALERT | EMERGENCY | SPI);
 
-            changed = true;
+        if (val1 == true) {
+            val |= ALERT | HADALERT;
         }
 
-        if (emergency != val2) {
-            emergency = val2;
-
-            if (emergency == true) {
-                hadEmergency = true;
-            }
-
-            changed = true;
+        if (val2 == true) {
+            val |= EMERGENCY | HADEMERGENCY;
         }
 
-        if (spi != val3) {
-            spi = val3;
-
-            if (spi == true) {
-                hadSPI = true;
-            }
-
-            changed = true;
+        if (val3 == true) {
+            val |= SPI | HADSPI;
         }
 
-        if (changed) {
-            updated = true;
+        if (val != flags) {
+            flags = val;
+            changes++;
         }
     }
 
     public boolean getHadAlert() {
-        return hadAlert;
+        return (flags & HADALERT) != 0;
     }
 
     public boolean getHadEmergency() {
-        return hadEmergency;
+        return (flags & HADEMERGENCY) != 0;
     }
 
     public boolean getHadSPI() {
-        return hadSPI;
+        return (flags & HADSPI) != 0;
     }
 }
@@ -0,0 +1,176 @@
+package adsnet;
+
+/*
+ * A copy of the Track values the database writer needs, taken at one
+ * moment, so a row can't mix an old and a new value, such as a new latitude
+ * with an old longitude.
+ *
+ * The SocketParse thread keeps changing the Track while the writer runs, so
+ * the writer fills a snapshot with Track.capture(), and binds its rows from
+ * the snapshot. The snapshots are reused from scan to scan, so nothing is
+ * allocated once the pool has grown to the busiest scan.
+ */
+public final class TrackSnapshot {
+
+    int address;
+    String acid;
+    String registration;
+    String callsign;
+    int altitude;
+    float groundSpeed;
+    float groundTrack;
+    float groundSpeedComputed;
+    float groundTrackComputed;
+    float latitude;
+    float longitude;
+    int verticalRate;
+    int verticalTrend;
+    int trackQuality;
+    int squawk;
+    long updateTime;
+    long updatePositionTime;
+    int positionRadarID;
+    int flags;                  // Track.ALERT, Track.EMERGENCY, ... bits
+    int changes;                // Track counts when it was captured
+    int moves;
+    boolean updated;            // changed since it was last written
+    boolean updatePosition;     // position changed since it was last written
+
+    public int getAircraftAddress() {
+        return address;
+    }
+
+    public String getAircraftID() {
+        return acid;
+    }
+
+    public String getRegistration() {
+        return registration;
+    }
+
+    public String getCallsign() {
+        return callsign;
+    }
+
+    public int getAltitude() {
+        return altitude;
+    }
+
+    public float getGroundSpeed() {
+        return groundSpeed;
+    }
+
+    public float getGroundTrack() {
+        return groundTrack;
+    }
+
+    public float getComputedGroundSpeed() {
+        return groundSpeedComputed;
+    }
+
+    public float getComputedGroundTrack() {
+        return groundTrackComputed;
+    }
+
+    public float getLatitude() {
+        return latitude;
+    }
+
+    public float getLongitude() {
+        return longitude;
+    }
+
+    public int getVerticalRate() {
+        return verticalRate;
+    }
+
+    public int getVerticalTrend() {
+        return verticalTrend;
+    }
+
+    /**
+     * Method to return the track quality at a given time
+     *
+     * @param now a long Representing the time in milliseconds
+     * @return an integer representing the track quality [0...9]
+     */
+    public int getTrackQuality(long now) {
+        return Track.quality(trackQuality, updatePositionTime, now);
+    }
+
+    public int getSquawk() {
+        return squawk;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public long getUpdatePositionTime() {
+        return updatePositionTime;
+    }
+
+    public int getPositionRadarID() {
+        return positionRadarID;
+    }
+
+    public boolean getAlert() {
+        return (flags & Track.ALERT) != 0;
+    }
+
+    public boolean getEmergency() {
+        return (flags & Track.EMERGENCY) != 0;
+    }
+
+    public boolean getSPI() {
+        return (flags & Track.SPI) != 0;
+    }
+
+    public boolean getOnGround() {
+        return (flags & Track.ONGROUND) != 0;
+    }
+
+    public boolean getVirtualOnGround() {
+        return altitude == 0;
+    }
+
+    public boolean getHijack() {
+        return squawk == 7500;
+    }
+
+    public boolean getCommOut() {
+        return squawk == 7600;
+    }
+
+    public boolean getHadAlert() {
+        return (flags & Track.HADALERT) != 0;
+    }
+
+    public boolean getHadEmergency() {
+        return (flags & Track.HADEMERGENCY) != 0;
+    }
+
+    public boolean getHadSPI() {
+        return (flags & Track.HADSPI) != 0;
+    }
+
+    /**
+     * Method to check if the track changed since it was last written
+     *
+     * @return a boolean which is true if a value changed
+     */
+    public boolean getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Method to check if the position changed since it was last written.
+     * It stays set until a scan with it is committed, so a rolled back scan
+     * writes it again.
+     *
+     * @return a boolean which is true if the position changed
+     */
+    public boolean getUpdatePosition() {
+        return updatePosition;
+    }
+}
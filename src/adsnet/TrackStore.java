@@ -0,0 +1,221 @@
+package adsnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/*
+ * This is the Track table, keyed by the 24-bit Mode-S address.
+ *
+ * It is an open addressing (linear probe) hash table, so there are no entry
+ * objects, and the key is never boxed. The key is read from the Track itself.
+ *
+ * Lookups do not take a lock, and are meant for the SocketParse thread.
+ * Inserts and removes are synchronized, and a lookup that races with one of
+ * them may miss, so new tracks are added with putIfAbsent() which checks
+ * again under the lock. Removed slots are marked with a tombstone, which is
+ * cleaned out when the table is rebuilt.
+ */
+public final class TrackStore {
+
+    private static final int MINCAPACITY = 64;
+    private static final Track DELETED = new Track(-1);     // tombstone
+    //
+    private volatile AtomicReferenceArray<Track> table;
+    private volatile int count;     // live tracks
+    private int used;               // live tracks and tombstones
+
+    public TrackStore(int capacity) {
+        int size = MINCAPACITY;
+
+        while (size < (capacity * 2)) {
+            size <<= 1;
+        }
+
+        table = new AtomicReferenceArray<>(size);
+        count = used = 0;
+    }
+
+    private static int hash(int icao) {
+        int h = icao * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Method to return the number of tracks in the table
+     *
+     * @return an int Representing the number of tracks
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Method to return the Track of a specified Mode-S address or null if not
+     * found
+     *
+     * @param icao an int Representing the Mode-S address
+     * @return a Track Representing the Mode-S address or null if none found
+     */
+    public Track get(int icao) {
+        AtomicReferenceArray<Track> tab = table;
+        int mask = tab.length() - 1;
+        Track trk;
+
+        for (int i = hash(icao) & mask;; i = (i + 1) & mask) {
+            trk = tab.get(i);
+
+            if (trk == null) {
+                return null;
+            } else if (trk != DELETED && trk.getAircraftAddress() == icao) {
+                return trk;
+            }
+        }
+    }
+
+    /**
+     * Method to put a Track into the table if its address is not already
+     * there
+     *
+     * @param trk a Track to add to the table
+     * @return a Track Representing the table entry, which is the one already
+     * in the table if there was one
+     */
+    public synchronized Track putIfAbsent(Track trk) {
+        AtomicReferenceArray<Track> tab = table;
+        int mask = tab.length() - 1;
+        int icao = trk.getAircraftAddress();
+        int slot = -1;
+        Track val;
+
+        for (int i = hash(icao) & mask;; i = (i + 1) & mask) {
+            val = tab.get(i);
+
+            if (val == null) {
+                break;
+            } else if (val == DELETED) {
+                if (slot == -1) {
+                    slot = i;   // reuse the first tombstone
+                }
+            } else if (val.getAircraftAddress() == icao) {
+                return val;
+            }
+        }
+
+        if (slot == -1) {
+            if ((used + 1) * 2 > tab.length()) {
+                rebuild();
+                return putIfAbsent(trk);
+            }
+
+            slot = hash(icao) & mask;
+
+            while (tab.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            used++;
+        }
+
+        tab.set(slot, trk);
+        count++;
+
+        return trk;
+    }
+
+    /**
+     * Method to remove a Track from the table. A newer Track with the same
+     * address is left alone.
+     *
+     * @param trk a Track to remove from the table
+     * @return a boolean which is true if the Track was removed
+     */
+    public synchronized boolean remove(Track trk) {
+        AtomicReferenceArray<Track> tab = table;
+        int mask = tab.length() - 1;
+        Track val;
+
+        for (int i = hash(trk.getAircraftAddress()) & mask;; i = (i + 1) & mask) {
+            val = tab.get(i);
+
+            if (val == null) {
+                return false;
+            } else if (val == trk) {
+                tab.set(i, DELETED);
+                count--;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Method to visit each Track in the table. Tracks added or removed while
+     * this runs may or may not be seen.
+     *
+     * @param action a Consumer to call with each Track
+     */
+    public void forEach(Consumer<Track> action) {
+        AtomicReferenceArray<Track> tab = table;
+        Track trk;
+
+        for (int i = 0; i < tab.length(); i++) {
+            trk = tab.get(i);
+
+            if (trk != null && trk != DELETED) {
+                action.accept(trk);
+            }
+        }
+    }
+
+    /**
+     * Method to make a copy of the Track objects
+     *
+     * @return a list containing the Track objects
+     */
+    public List<Track> values() {
+        List<Track> result = new ArrayList<>(count);
+
+        forEach(result::add);
+
+        return result;
+    }
+
+    /*
+     * Copy the live tracks into a new table, dropping the tombstones, and
+     * growing the table if it is more than a quarter full.
+     */
+    private void rebuild() {
+        AtomicReferenceArray<Track> old = table;
+        int size = old.length();
+        AtomicReferenceArray<Track> tab;
+        int mask;
+        int slot;
+        Track trk;
+
+        if (count * 4 >= size) {
+            size <<= 1;
+        }
+
+        tab = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+
+        for (int i = 0; i < old.length(); i++) {
+            trk = old.get(i);
+
+            if (trk != null && trk != DELETED) {
+                slot = hash(trk.getAircraftAddress()) & mask;
+
+                while (tab.get(slot) != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                tab.set(slot, trk);
+            }
+        }
+
+        used = count;
+        table = tab;
+    }
+}
@@ -0,0 +1,187 @@
+package adsnet;
+
+/*
+ * A check of the NConverter over the whole US block, A00001 - ADF7C7.
+ *
+ * Every address must give the same N-Number as the OldNConverter, and the
+ * N-Number must convert back to the same address. Then the old and new
+ * conversions are timed both ways. It exits with status 1 if any address
+ * doesn't match.
+ */
+public final class NConverterCheck {
+
+    private static final int ICAOMIN = 0xA00001;
+    private static final int ICAOMAX = 0xADF7C7;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        NConverter nc = new NConverter();
+        OldNConverter old = new OldNConverter();
+        int count = ICAOMAX - ICAOMIN + 1;
+        String[] hex = new String[count];
+        String[] tails = new String[count];
+        String[] legal;
+        int errors = 0;
+        int oldThrows = 0;
+        int n = 0;
+        int icao;
+
+        for (int i = 0; i < count; i++) {
+            hex[i] = Integer.toHexString(ICAOMIN + i).toUpperCase();
+        }
+
+        /*
+         * The round trip, against the old code
+         */
+        for (int i = 0; i < count; i++) {
+            icao = ICAOMIN + i;
+            tails[i] = nc.icao_to_n(icao);
+
+            if (!tails[i].equals(old.icao_to_n(hex[i]))) {
+                errors += report("icao_to_n", hex[i], tails[i] + " old " + old.icao_to_n(hex[i]));
+            }
+
+            if (nc.n_to_icao(tails[i]) != icao) {
+                errors += report("n_to_icao", tails[i], Integer.toHexString(nc.n_to_icao(tails[i])));
+            }
+
+            try {
+                if (old.n_to_icao(tails[i]) != icao) {
+                    errors += report("old n_to_icao", tails[i], Integer.toHexString(old.n_to_icao(tails[i])));
+                }
+            } catch (StringIndexOutOfBoundsException e) {
+                oldThrows++;        // N1A, N11A and the like
+                tails[i] = null;
+            }
+        }
+
+        legal = new String[count - oldThrows];
+
+        for (String t : tails) {
+            if (t != null) {
+                legal[n++] = t;
+            }
+        }
+
+        /*
+         * Outside the block, and illegal N-Numbers
+         */
+        if (!nc.icao_to_n(ICAOMIN - 1).equals("") || !nc.icao_to_n(ICAOMAX + 1).equals("")) {
+            errors += report("icao_to_n", "outside the block", "not empty");
+        }
+
+        for (String tail : new String[]{"", "N", "N0", "X123", "N1I", "N1O", "N1234567", "N99999Z", "NA"}) {
+            if (nc.n_to_icao(tail) != -1) {
+                errors += report("n_to_icao", tail, Integer.toHexString(nc.n_to_icao(tail)));
+            }
+        }
+
+        System.out.println("NConverter " + count + " addresses, " + errors + " errors ("
+                + oldThrows + " the old n_to_icao couldn't convert)");
+
+        benchmark(nc, old, hex, legal);
+
+        if (errors != 0) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("PASSED");
+    }
+
+    private static int report(String method, String in, String out) {
+        System.out.println(method + " " + in + " gave " + out);
+        return 1;
+    }
+
+    /*
+     * Time a pass over the whole block, the best of a few rounds. The new
+     * icao_to_n is timed on a fresh NConverter, which converts each address
+     * the first time, and again when the table is full, which is the cost
+     * of a lookup from then on. n_to_icao is timed on the N-Numbers the old
+     * code can convert.
+     */
+    private static void benchmark(NConverter nc, OldNConverter old, String[] hex, String[] tails) {
+        long sum = 0L;
+        long best;
+        long start;
+        NConverter fresh;
+
+        best = Long.MAX_VALUE;
+
+        for (int r = 0; r < ROUNDS; r++) {
+            start = System.nanoTime();
+
+            for (String h : hex) {
+                sum += old.icao_to_n(h).length();
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        print("old icao_to_n(String)", best, hex.length);
+
+        best = Long.MAX_VALUE;
+
+        for (int r = 0; r < ROUNDS; r++) {
+            fresh = new NConverter();
+            start = System.nanoTime();
+
+            for (int i = 0; i < hex.length; i++) {
+                sum += fresh.icao_to_n(ICAOMIN + i).length();
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        print("new icao_to_n(int), first", best, hex.length);
+
+        best = Long.MAX_VALUE;
+
+        for (int r = 0; r < ROUNDS; r++) {
+            start = System.nanoTime();
+
+            for (int i = 0; i < hex.length; i++) {
+                sum += nc.icao_to_n(ICAOMIN + i).length();
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        print("new icao_to_n(int), table", best, hex.length);
+
+        best = Long.MAX_VALUE;
+
+        for (int r = 0; r < ROUNDS; r++) {
+            start = System.nanoTime();
+
+            for (String t : tails) {
+                sum += old.n_to_icao(t);
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        print("old n_to_icao", best, tails.length);
+
+        best = Long.MAX_VALUE;
+
+        for (int r = 0; r < ROUNDS; r++) {
+            start = System.nanoTime();
+
+            for (String t : tails) {
+                sum += nc.n_to_icao(t);
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        print("new n_to_icao", best, tails.length);
+
+        System.out.println("(checksum " + sum + ")");
+    }
+
+    private static void print(String name, long nanos, int count) {
+        System.out.println(String.format("%-28s %6.1f ns/call", name, (double) nanos / count));
+    }
+}
@@ -0,0 +1,98 @@
+package adsnet;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * A check that the SBSParser allocates nothing per line in steady state.
+ *
+ * A mix of MSG lines is parsed, and every field the SocketParse thread
+ * uses is read back, first to warm up the JIT, and then while the bytes
+ * allocated by the thread are counted with the HotSpot ThreadMXBean.
+ * It exits with status 1 if any bytes were allocated.
+ */
+public final class SBSAllocationCheck {
+
+    private static final int WARMUP = 500000;
+    private static final int LINES = 1000000;
+    //
+    private static final String[] MSG = {
+        "MSG,1,111,11111,A1B2C3,111111,2020/01/01,23:57:02.250,2020/01/01,23:57:02.250,AAL123  ,,,,,,,,,,,0",
+        "MSG,3,111,11111,A1B2C3,111111,2020/01/01,23:57:03.250,2020/01/01,23:57:03.250,,35000,,,34.38290,-98.42328,,,0,0,0,0",
+        "MSG,4,111,11111,A1B2C3,111111,2020/01/01,23:57:04.250,2020/01/01,23:57:04.250,,,450.5,270.0,,,-640,,,,,0",
+        "MSG,5,111,11111,A1B2C3,111111,2020/01/01,23:57:05.250,2020/01/01,23:57:05.250,,35000,,,,,,,1,,1,0",
+        "MSG,6,111,11111,A1B2C3,111111,2020/01/01,23:57:06.250,2020/01/01,23:57:06.250,,35000,,,,,,7500,0,0,0,0",
+        "MSG,8,111,11111,A1B2C3,111111,2020/01/02,00:00:01.000,2020/01/02,00:00:01.000,,,,,,,,,,,,-1"
+    };
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean mx
+                = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        ByteBuffer[] lines = new ByteBuffer[MSG.length];
+        SBSParser parser = new SBSParser();
+        long sum;
+        long before;
+        long after;
+
+        for (int i = 0; i < MSG.length; i++) {
+            byte[] b = MSG[i].getBytes(StandardCharsets.US_ASCII);
+
+            lines[i] = ByteBuffer.allocateDirect(b.length);
+            lines[i].put(b);
+        }
+
+        sum = run(parser, lines, WARMUP);
+
+        before = mx.getThreadAllocatedBytes(id);
+        sum += run(parser, lines, LINES);
+        after = mx.getThreadAllocatedBytes(id);
+
+        System.out.println("SBSParser " + LINES + " lines, " + (after - before)
+                + " bytes allocated (checksum " + sum + ")");
+
+        if (after != before) {
+            System.out.println("FAILED: the parser allocates in steady state");
+            System.exit(1);
+        }
+
+        System.out.println("PASSED");
+    }
+
+    /*
+     * Parse the lines round and round, and read the fields the way
+     * SocketParse does, so nothing is optimized away
+     */
+    private static long run(SBSParser parser, ByteBuffer[] lines, int count) {
+        ByteBuffer b;
+        long sum = 0L;
+
+        for (int i = 0; i < count; i++) {
+            b = lines[i % lines.length];
+
+            if (parser.parse(b, 0, b.limit()) == false) {
+                continue;
+            }
+
+            sum += parser.getType();
+            sum += parser.getAddress();
+            sum += parser.getTime(0L);
+            sum += parser.getFingerprint(parser.getAddress(), parser.getType());
+            sum += parser.getInt(Report.ALTITUDE, -9999);
+            sum += parser.getInt(Report.VRATE, -9999);
+            sum += parser.getInt(Report.SQUAWK, -9999);
+            sum += (long) parser.getFloat(Report.GSPEED, -999.0F);
+            sum += (long) parser.getFloat(Report.GTRACK, -999.0F);
+            sum += (long) (parser.getFloat(Report.LATITUDE, -999.0F) * 1E5F);
+            sum += (long) (parser.getFloat(Report.LONGITUDE, -999.0F) * 1E5F);
+            sum += parser.getFlag(Report.ALERT) ? 1 : 0;
+            sum += parser.getFlag(Report.EMERG) ? 1 : 0;
+            sum += parser.getFlag(Report.SPI) ? 1 : 0;
+            sum += parser.getOnGround() ? 1 : 0;
+            sum += parser.callsignEquals("AAL123") ? 1 : 0;
+        }
+
+        return sum;
+    }
+}